@@ -0,0 +1,109 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.benchmark;
+
+import com.serena.rlc.provider.filesystem.client.ContentStore;
+import com.serena.rlc.provider.filesystem.client.CopyOptions;
+import com.serena.rlc.provider.filesystem.client.FilesystemClient;
+import com.serena.rlc.provider.filesystem.domain.CopyResult;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FilesystemClient#localCopy(String, String, CopyOptions)} of a generated deploy unit in
+ * each copy mode:
+ * <ul>
+ * <li>COPY - plain copy into an empty destination, which takes the small-file path</li>
+ * <li>COPY_EXISTING - plain copy over a populated destination, replacing every file</li>
+ * <li>COMMONS_IO - {@link FileUtils#copyDirectory(File, File, boolean)} into an empty destination,
+ * the copy used before the copy engine, as a baseline</li>
+ * <li>MIRROR - mirror into an empty destination</li>
+ * <li>MIRROR_UNCHANGED - mirror into a destination that is already up to date</li>
+ * <li>LINK_FROM_STORE - copy a deduplicated unit by linking from the content store</li>
+ * <li>SNAPSHOT - plain copy over a populated destination, snapshotting it first</li>
+ * </ul>
+ *
+ * @author klee
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CopyBenchmark {
+
+    @Param({"SMALL_FILES", "LARGE_FILES", "DEEP_NESTING"})
+    public TreeShape shape;
+
+    @Param({"COPY", "COPY_EXISTING", "COMMONS_IO", "MIRROR", "MIRROR_UNCHANGED", "LINK_FROM_STORE", "SNAPSHOT"})
+    public String mode;
+
+    private Path workDir;
+    private Path source;
+    private Path destination;
+    private FilesystemClient client;
+    private CopyOptions options;
+
+    @Setup(Level.Trial)
+    public void createTrees() throws Exception {
+        workDir = Files.createTempDirectory("rlc-copy-benchmark");
+        Path baseDir = Files.createDirectories(workDir.resolve("base"));
+        source = DeployUnitTrees.create(baseDir.resolve("v1.0"), shape);
+        destination = workDir.resolve("target").resolve("app");
+
+        client = new FilesystemClient();
+        options = new CopyOptions(true);
+        if ("LINK_FROM_STORE".equals(mode)) {
+            Path storeDir = workDir.resolve("cas");
+            new ContentStore(storeDir.toString()).deduplicate(source);
+            client.createConnection(null, baseDir.toString(), storeDir.toString());
+            options.setLinkFromStore(true);
+        } else {
+            client.createConnection(null, baseDir.toString());
+        }
+        options.setMirror(mode.startsWith("MIRROR"));
+        if ("SNAPSHOT".equals(mode)) {
+            options.setSnapshot(true);
+            options.setSnapshotLimit(1);
+        }
+        if (keepsDestination()) {
+            client.localCopy(source.toString(), destination.toString(), true);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void clearDestination() throws IOException {
+        if (!keepsDestination()) {
+            DeployUnitTrees.delete(destination);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTrees() throws IOException {
+        DeployUnitTrees.delete(workDir);
+    }
+
+    @Benchmark
+    public CopyResult localCopy() throws Exception {
+        if ("COMMONS_IO".equals(mode)) {
+            FileUtils.copyDirectory(source.toFile(), destination.toFile(), true);
+            return null;
+        }
+        return client.localCopy(source.toString(), destination.toString(), options);
+    }
+
+    private boolean keepsDestination() {
+        return "COPY_EXISTING".equals(mode) || "MIRROR_UNCHANGED".equals(mode) || "SNAPSHOT".equals(mode);
+    }
+}
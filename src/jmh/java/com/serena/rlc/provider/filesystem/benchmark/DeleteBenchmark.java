@@ -0,0 +1,60 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.benchmark;
+
+import com.serena.rlc.provider.filesystem.client.FilesystemClient;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FilesystemClient#localDelete(String, boolean)} of a freshly copied deploy unit.
+ *
+ * @author klee
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DeleteBenchmark {
+
+    @Param({"SMALL_FILES", "LARGE_FILES", "DEEP_NESTING"})
+    public TreeShape shape;
+
+    private Path workDir;
+    private Path source;
+    private Path target;
+    private FilesystemClient client;
+
+    @Setup(Level.Trial)
+    public void createTree() throws IOException {
+        workDir = Files.createTempDirectory("rlc-delete-benchmark");
+        source = DeployUnitTrees.create(workDir.resolve("v1.0"), shape);
+        target = workDir.resolve("target");
+        client = new FilesystemClient();
+    }
+
+    @Setup(Level.Invocation)
+    public void populateTarget() throws Exception {
+        client.localCopy(source.toString(), target.toString(), false);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() throws IOException {
+        DeployUnitTrees.delete(workDir);
+    }
+
+    @Benchmark
+    public void localDelete() throws Exception {
+        client.localDelete(target.toString(), false);
+    }
+}
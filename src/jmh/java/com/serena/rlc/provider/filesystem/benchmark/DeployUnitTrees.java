@@ -0,0 +1,90 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+/**
+ * Generates and removes synthetic deploy unit trees below the local temporary directory. File
+ * content is pseudo-random with a fixed seed, so every generated unit of a shape is identical.
+ *
+ * @author klee
+ */
+public final class DeployUnitTrees {
+
+    private static final int WRITE_CHUNK = 64 * 1024;
+
+    private DeployUnitTrees() {
+
+    }
+
+    /**
+     * Create a deploy unit of the given shape at {@code unitDir}.
+     */
+    public static Path create(Path unitDir, TreeShape shape) throws IOException {
+        Random random = new Random(42);
+        byte[] chunk = new byte[Math.min(shape.getFileSize(), WRITE_CHUNK)];
+        for (int branch = 0; branch < shape.getBranches(); branch++) {
+            Path dir = unitDir.resolve("branch" + branch);
+            for (int level = 0; level < shape.getDepth(); level++) {
+                if (level > 0) {
+                    dir = dir.resolve("level" + level);
+                }
+                Files.createDirectories(dir);
+                for (int file = 0; file < shape.getFilesPerDir(); file++) {
+                    try (OutputStream out = Files.newOutputStream(dir.resolve("file" + file + ".dat"))) {
+                        for (int written = 0; written < shape.getFileSize(); written += chunk.length) {
+                            random.nextBytes(chunk);
+                            out.write(chunk, 0, Math.min(chunk.length, shape.getFileSize() - written));
+                        }
+                    }
+                }
+            }
+        }
+        return unitDir;
+    }
+
+    /**
+     * Create {@code count} small deploy units named {@code v1.0} to {@code v1.<count-1>}.
+     */
+    public static Path createUnits(Path baseDir, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            Path unit = Files.createDirectories(baseDir.resolve("v1." + i));
+            Files.write(unit.resolve("version.txt"), ("1." + i).getBytes("UTF-8"));
+        }
+        return baseDir;
+    }
+
+    public static void delete(Path root) throws IOException {
+        if (!Files.exists(root, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
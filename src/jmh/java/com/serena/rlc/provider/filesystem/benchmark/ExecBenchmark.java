@@ -0,0 +1,55 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.benchmark;
+
+import com.serena.rlc.provider.filesystem.client.FilesystemClient;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Start-up cost of {@link FilesystemClient#localExec(String, String, String, boolean)} with a
+ * shell script that exits immediately. Requires a POSIX shell.
+ *
+ * @author klee
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExecBenchmark {
+
+    private static final String SCRIPT = "run.sh";
+
+    private Path execDir;
+    private FilesystemClient client;
+
+    @Setup(Level.Trial)
+    public void createScript() throws IOException {
+        execDir = Files.createTempDirectory("rlc-exec-benchmark");
+        Path script = execDir.resolve(SCRIPT);
+        Files.write(script, "#!/bin/sh\nexit 0\n".getBytes("UTF-8"));
+        Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwxr-xr-x"));
+        client = new FilesystemClient();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteScript() throws IOException {
+        DeployUnitTrees.delete(execDir);
+    }
+
+    @Benchmark
+    public void localExec() throws Exception {
+        client.localExec(SCRIPT, execDir.toString(), "", false);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.benchmark;
+
+import com.serena.rlc.provider.filesystem.client.DiscoveryOptions;
+import com.serena.rlc.provider.filesystem.client.FilesystemClient;
+import com.serena.rlc.provider.filesystem.domain.Directory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FilesystemClient#getDirectories(String)} on a base directory holding many deploy units,
+ * answered from the version index, compared with a walk of the base directory on every call.
+ *
+ * @author klee
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ListingBenchmark {
+
+    @Param({"100", "5000"})
+    public int units;
+
+    private Path baseDir;
+    private FilesystemClient client;
+
+    @Setup(Level.Trial)
+    public void createUnits() throws IOException {
+        baseDir = DeployUnitTrees.createUnits(Files.createTempDirectory("rlc-listing-benchmark"), units);
+        client = new FilesystemClient();
+        client.createConnection(null, baseDir.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteUnits() throws IOException {
+        DeployUnitTrees.delete(baseDir);
+    }
+
+    @Benchmark
+    public List<Directory> getDirectories() throws Exception {
+        return client.getDirectories(null);
+    }
+
+    @Benchmark
+    public List<Directory> getDirectoriesFiltered() throws Exception {
+        return client.getDirectories("v1.1");
+    }
+
+    @Benchmark
+    public List<Directory> getLatestDeployUnits() throws Exception {
+        return client.getDeployUnits(null, DiscoveryOptions.CHILDREN, true, 1);
+    }
+
+    @Benchmark
+    public void findDirectories(final Blackhole blackhole) throws Exception {
+        client.findDirectories(null, DiscoveryOptions.CHILDREN, new FilesystemClient.DirectoryVisitor() {
+            @Override
+            public void found(Directory directory) {
+                blackhole.consume(directory);
+            }
+        });
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.benchmark;
+
+import com.serena.rlc.provider.domain.ExecutionInfo;
+import com.serena.rlc.provider.domain.Field;
+import com.serena.rlc.provider.domain.ProviderInfoResult;
+import com.serena.rlc.provider.spi.IDeployUnitProvider;
+import com.serena.rlc.provider.spi.IExecutionProvider;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Concurrent load test of the providers as the RLC server uses them: both providers are created
+ * from {@code serena-provider-filesystem-1.0.xml} for every call and driven through the SPI with a
+ * weighted mix of {@code execute} (copyDir), {@code validate} (copyDir) and {@code findDeployUnits}
+ * calls against generated deploy units. Reports throughput, p50/p99 latency and errors per call.
+ * <p>
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec@load-harness -Dload.args="..."}, where
+ * the arguments are any of (defaults shown):
+ * <pre>
+ * threads=8 duration=30 warmup=5 units=20 shape=DEEP_NESTING mix=execute:1,validate:3,find:6 mirror=true
+ * </pre>
+ *
+ * @author klee
+ */
+public class ProviderLoadHarness {
+
+    private static final String CONTEXT_FILE = "serena-provider-filesystem-1.0.xml";
+    private static final String[] OPERATIONS = {"execute", "validate", "find"};
+
+    private final int threads;
+    private final int durationSeconds;
+    private final int warmupSeconds;
+    private final int units;
+    private final TreeShape shape;
+    private final boolean mirror;
+    private final int[] weights = new int[OPERATIONS.length];
+
+    private ClassPathXmlApplicationContext context;
+    private Path workDir;
+
+    public ProviderLoadHarness(Map<String, String> options) {
+        this.threads = Integer.parseInt(option(options, "threads", "8"));
+        this.durationSeconds = Integer.parseInt(option(options, "duration", "30"));
+        this.warmupSeconds = Integer.parseInt(option(options, "warmup", "5"));
+        this.units = Integer.parseInt(option(options, "units", "20"));
+        this.shape = TreeShape.valueOf(option(options, "shape", TreeShape.DEEP_NESTING.name()));
+        this.mirror = Boolean.parseBoolean(option(options, "mirror", "true"));
+        for (String weight : option(options, "mix", "execute:1,validate:3,find:6").split(",")) {
+            String[] parts = weight.split(":");
+            weights[Arrays.asList(OPERATIONS).indexOf(parts[0].trim())] = Integer.parseInt(parts[1].trim());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq).replaceFirst("^-+", ""), arg.substring(eq + 1));
+            }
+        }
+        new ProviderLoadHarness(options).run();
+        System.exit(0);
+    }
+
+    public void run() throws Exception {
+        workDir = Files.createTempDirectory("rlc-load-harness");
+        try {
+            Path baseDir = Files.createDirectories(workDir.resolve("base"));
+            System.out.println("Generating " + units + " " + shape + " deploy units in " + baseDir + "...");
+            for (int i = 0; i < units; i++) {
+                DeployUnitTrees.create(baseDir.resolve("v1." + i), shape);
+            }
+
+            System.setProperty("deploy_unit_base_dir", baseDir.toString());
+            System.setProperty("deploy_unit_provider_name", "Load Harness Deploy Units");
+            System.setProperty("deploy_unit_provider_description", "");
+            System.setProperty("execution_provider_name", "Load Harness Execution");
+            System.setProperty("execution_provider_description", "");
+            context = new ClassPathXmlApplicationContext(CONTEXT_FILE);
+
+            System.out.println("Warming up for " + warmupSeconds + " s with " + threads + " threads...");
+            drive(warmupSeconds);
+            System.out.println("Measuring for " + durationSeconds + " s with " + threads + " threads, mix " + mixDescription() + "...");
+            Recorder[] recorders = drive(durationSeconds);
+            report(recorders, durationSeconds);
+        } finally {
+            if (context != null) {
+                context.close();
+            }
+            DeployUnitTrees.delete(workDir);
+        }
+    }
+
+    //================================================================================
+    // Private Methods
+    //================================================================================
+
+    private Recorder[] drive(int seconds) throws Exception {
+        final Recorder[] recorders = new Recorder[threads];
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final Recorder recorder = recorders[t] = new Recorder();
+            final Path destination = Files.createDirectories(workDir.resolve("dest-" + t));
+            final Random random = new Random(t);
+            workers.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    while (running.get()) {
+                        int operation = pickOperation(random);
+                        long begin = System.nanoTime();
+                        boolean ok;
+                        try {
+                            ok = invoke(operation, "v1." + random.nextInt(units), destination);
+                        } catch (Exception e) {
+                            ok = false;
+                        }
+                        recorder.record(operation, System.nanoTime() - begin, ok);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        start.countDown();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        running.set(false);
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        pool.shutdown();
+        return recorders;
+    }
+
+    private boolean invoke(int operation, String unit, Path destination) throws Exception {
+        switch (OPERATIONS[operation]) {
+            case "execute": {
+                IExecutionProvider provider = context.getBean("executionProvider", IExecutionProvider.class);
+                ExecutionInfo info = provider.execute("copyDir", "Load", "Load harness copy", copyProperties(unit, destination));
+                return Boolean.TRUE.equals(info.getSuccess());
+            }
+            case "validate": {
+                IExecutionProvider provider = context.getBean("executionProvider", IExecutionProvider.class);
+                ExecutionInfo info = provider.validate("copyDir", "Load", "Load harness validate", copyProperties(unit, destination));
+                return Boolean.TRUE.equals(info.getSuccess());
+            }
+            default: {
+                IDeployUnitProvider provider = context.getBean("deployUnitProvider", IDeployUnitProvider.class);
+                List<Field> properties = new ArrayList<>();
+                properties.add(new Field("dirNameFilter", "Deploy Unit Name Filter", "v1."));
+                ProviderInfoResult result = provider.findDeployUnits(properties, 0L, 0L);
+                return result.getTotal() == units;
+            }
+        }
+    }
+
+    private List<Field> copyProperties(String unit, Path destination) {
+        List<Field> properties = new ArrayList<>();
+        properties.add(new Field("sourceDir", "Source Directory", unit));
+        properties.add(new Field("destinationDir", "Destination Directory", destination.toString()));
+        properties.add(new Field("preserveDates", "Preserve Dates", "true"));
+        properties.add(new Field("mirror", "Mirror", String.valueOf(mirror)));
+        return properties;
+    }
+
+    private int pickOperation(Random random) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int pick = random.nextInt(total);
+        for (int i = 0; i < weights.length; i++) {
+            pick -= weights[i];
+            if (pick < 0) {
+                return i;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    private String mixDescription() {
+        StringBuilder mix = new StringBuilder();
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            mix.append(i > 0 ? "," : "").append(OPERATIONS[i]).append(':').append(weights[i]);
+        }
+        return mix.toString();
+    }
+
+    private void report(Recorder[] recorders, int seconds) {
+        System.out.println();
+        System.out.println(String.format("%-10s %10s %12s %12s %12s %12s %8s", "call", "count", "ops/s", "p50 ms", "p99 ms", "max ms", "errors"));
+        for (int operation = 0; operation < OPERATIONS.length; operation++) {
+            long[] latencies = new long[0];
+            long errors = 0;
+            for (Recorder recorder : recorders) {
+                long[] recorded = recorder.latencies(operation);
+                long[] merged = Arrays.copyOf(latencies, latencies.length + recorded.length);
+                System.arraycopy(recorded, 0, merged, latencies.length, recorded.length);
+                latencies = merged;
+                errors += recorder.errors[operation];
+            }
+            if (latencies.length == 0) {
+                continue;
+            }
+            Arrays.sort(latencies);
+            System.out.println(String.format("%-10s %10d %12.1f %12.2f %12.2f %12.2f %8d", OPERATIONS[operation], latencies.length,
+                    latencies.length / (double) seconds, millis(percentile(latencies, 0.50)), millis(percentile(latencies, 0.99)),
+                    millis(latencies[latencies.length - 1]), errors));
+        }
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1)];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Latencies and errors of one worker thread, per operation.
+     */
+    private static class Recorder {
+
+        private final long[][] latencies = new long[OPERATIONS.length][1024];
+        private final int[] counts = new int[OPERATIONS.length];
+        private final long[] errors = new long[OPERATIONS.length];
+
+        void record(int operation, long nanos, boolean ok) {
+            if (counts[operation] == latencies[operation].length) {
+                latencies[operation] = Arrays.copyOf(latencies[operation], counts[operation] * 2);
+            }
+            latencies[operation][counts[operation]++] = nanos;
+            if (!ok) {
+                errors[operation]++;
+            }
+        }
+
+        long[] latencies(int operation) {
+            return Arrays.copyOf(latencies[operation], counts[operation]);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.benchmark;
+
+/**
+ * Shapes of the synthetic deploy units generated by {@link DeployUnitTrees}.
+ *
+ * @author klee
+ */
+public enum TreeShape {
+
+    /** 40 directories of 250 files of 4 KiB each (10,000 files, 40 MiB). */
+    SMALL_FILES(40, 1, 250, 4 * 1024),
+
+    /** A single directory holding 3 files of 64 MiB each. */
+    LARGE_FILES(1, 1, 3, 64 * 1024 * 1024),
+
+    /** 16 chains of directories 32 levels deep with 4 files of 1 KiB on every level. */
+    DEEP_NESTING(16, 32, 4, 1024);
+
+    private final int branches;
+    private final int depth;
+    private final int filesPerDir;
+    private final int fileSize;
+
+    TreeShape(int branches, int depth, int filesPerDir, int fileSize) {
+        this.branches = branches;
+        this.depth = depth;
+        this.filesPerDir = filesPerDir;
+        this.fileSize = fileSize;
+    }
+
+    public int getBranches() {
+        return branches;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getFilesPerDir() {
+        return filesPerDir;
+    }
+
+    public int getFileSize() {
+        return fileSize;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.benchmark;
+
+import com.serena.rlc.provider.filesystem.client.FilesystemClient;
+import com.serena.rlc.provider.filesystem.domain.CopyResult;
+import com.serena.rlc.provider.filesystem.domain.DirectoryDiff;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copy, delete and hash a small-file deploy unit with the blocking file workers on virtual
+ * threads or on the bounded platform pool. The worker mode is fixed when the client classes are
+ * loaded, so each mode needs its own fork ({@code -f 0} measures whichever mode comes first).
+ * Before Java 21 both modes run on platform threads.
+ *
+ * @author klee
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WorkerModeBenchmark {
+
+    @Param({"virtual", "platform"})
+    public String workers;
+
+    @Param({"SMALL_FILES"})
+    public TreeShape shape;
+
+    private Path workDir;
+    private Path source;
+    private Path other;
+    private Path target;
+    private FilesystemClient client;
+
+    @Setup(Level.Trial)
+    public void createTree() throws Exception {
+        System.setProperty("rlc.filesystem.virtualThreads", String.valueOf("virtual".equals(workers)));
+        workDir = Files.createTempDirectory("rlc-worker-benchmark");
+        source = DeployUnitTrees.create(workDir.resolve("v1.0"), shape);
+        other = DeployUnitTrees.create(workDir.resolve("v1.1"), shape);
+        target = workDir.resolve("target");
+        client = new FilesystemClient();
+    }
+
+    @Setup(Level.Invocation)
+    public void clearTarget() throws IOException {
+        DeployUnitTrees.delete(target);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() throws IOException {
+        DeployUnitTrees.delete(workDir);
+    }
+
+    @Benchmark
+    public CopyResult copyAndDelete() throws Exception {
+        CopyResult result = client.localCopy(source.toString(), target.toString(), true);
+        client.localDelete(target.toString(), false);
+        return result;
+    }
+
+    @Benchmark
+    public DirectoryDiff hashAndDiff() throws Exception {
+        // a fresh client has no cached manifests, so both units are hashed
+        return new FilesystemClient().diffDirectories(source.toString(), other.toString());
+    }
+}
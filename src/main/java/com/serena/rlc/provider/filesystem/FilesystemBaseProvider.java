@@ -13,9 +13,14 @@ import com.serena.rlc.provider.annotations.ConfigProperty;
 import com.serena.rlc.provider.domain.DataType;
 import com.serena.rlc.provider.domain.Field;
 import com.serena.rlc.provider.domain.SessionData;
+import com.serena.rlc.provider.exceptions.ProviderException;
 import com.serena.rlc.provider.filesystem.client.FilesystemClient;
+import com.serena.rlc.provider.filesystem.client.DiscoveryOptions;
+import com.serena.rlc.provider.filesystem.client.RetentionPolicy;
+import com.serena.rlc.provider.filesystem.exception.FilesystemClientException;
 import com.serena.rlc.provider.spi.IBaseServiceProvider;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -28,6 +33,13 @@ public abstract class FilesystemBaseProvider implements IBaseServiceProvider {
 
     final static String DIR_NAME = "dirName";
     final static String DIR_NAME_FILTER = "dirNameFilter";
+    final static String FROM_DIR_NAME = "fromDirName";
+    final static String TO_DIR_NAME = "toDirName";
+    final static String DIFF_DEPLOY_UNITS = "diffDeployUnits";
+    static final String SORT_ORDER = "sortOrder";
+    static final String LATEST_VERSIONS = "latestVersions";
+    static final String NEWEST_FIRST = "newest-first";
+    static final String OLDEST_FIRST = "oldest-first";
     static final String SRC_DIR = "sourceDir";
     static final String DEST_DIR = "destinationDir";
     static final String DELETE_DIR = "deleteDir";
@@ -37,6 +49,12 @@ public abstract class FilesystemBaseProvider implements IBaseServiceProvider {
     static final String EXEC_PARAMS = "execParams";
     static final String PRESERVE_DATES = "preserveDates";
     static final String IGNORE_ERRORS = "ignoreErrors";
+    static final String LINK_FROM_STORE = "linkFromStore";
+    static final String MIRROR = "mirror";
+    static final String SNAPSHOT = "snapshot";
+    static final String DURABILITY = "durability";
+    static final String ROLLBACK_DIR = "rollbackDir";
+    static final String GET_PROGRESS = "getProgress";
 
     private SessionData session;
     private Long providerId;
@@ -111,6 +129,258 @@ public abstract class FilesystemBaseProvider implements IBaseServiceProvider {
         return this.baseDir;
     }
 
+    @ConfigProperty(name = "content_store_dir", displayName = "Content Store Directory",
+            description = "Directory of the content-addressable store used to deduplicate deploy units with hard links. Must be on the same volume as the base directory; leave empty to disable. Deduplicated files share their content with every identical file of other deploy units, so deploy unit files must never be modified in place.",
+            defaultValue = "",
+            dataType = DataType.TEXT)
+    private String contentStoreDir;
+
+    @Autowired(required = false)
+    public void setContentStoreDir(String contentStoreDir) {
+        if (StringUtils.isNotEmpty(contentStoreDir)) {
+            contentStoreDir = contentStoreDir.trim();
+        }
+        this.contentStoreDir = contentStoreDir;
+    }
+
+    public String getContentStoreDir() {
+        return this.contentStoreDir;
+    }
+
+    @ConfigProperty(name = "retention_keep_last", displayName = "Retention - Keep Last Versions",
+            description = "Number of newest deploy units to keep for each name prefix (e.g. app-v); 0 keeps all.",
+            defaultValue = "0",
+            dataType = DataType.NUMERIC)
+    private String retentionKeepLast;
+
+    @Autowired(required = false)
+    public void setRetentionKeepLast(String retentionKeepLast) {
+        if (StringUtils.isNotEmpty(retentionKeepLast)) {
+            retentionKeepLast = retentionKeepLast.trim();
+        }
+        this.retentionKeepLast = retentionKeepLast;
+    }
+
+    public String getRetentionKeepLast() {
+        return this.retentionKeepLast;
+    }
+
+    @ConfigProperty(name = "retention_max_age_days", displayName = "Retention - Maximum Age (days)",
+            description = "Deploy units modified within this number of days are always kept; 0 disables the age rule. The newest version of each name prefix is never removed.",
+            defaultValue = "0",
+            dataType = DataType.NUMERIC)
+    private String retentionMaxAgeDays;
+
+    @Autowired(required = false)
+    public void setRetentionMaxAgeDays(String retentionMaxAgeDays) {
+        if (StringUtils.isNotEmpty(retentionMaxAgeDays)) {
+            retentionMaxAgeDays = retentionMaxAgeDays.trim();
+        }
+        this.retentionMaxAgeDays = retentionMaxAgeDays;
+    }
+
+    public String getRetentionMaxAgeDays() {
+        return this.retentionMaxAgeDays;
+    }
+
+    @ConfigProperty(name = "discovery_depth", displayName = "Discovery - Depth",
+            description = "Number of directory levels below the base directory to search for deploy units, e.g. 3 for <app>/<component>/<version>.",
+            defaultValue = "1",
+            dataType = DataType.NUMERIC)
+    private String discoveryDepth;
+
+    @Autowired(required = false)
+    public void setDiscoveryDepth(String discoveryDepth) {
+        if (StringUtils.isNotEmpty(discoveryDepth)) {
+            discoveryDepth = discoveryDepth.trim();
+        }
+        this.discoveryDepth = discoveryDepth;
+    }
+
+    public String getDiscoveryDepth() {
+        return this.discoveryDepth;
+    }
+
+    @ConfigProperty(name = "discovery_marker_file", displayName = "Discovery - Marker File",
+            description = "Name of a file that marks a directory as a deploy unit; leave empty to recognise units by depth or name.",
+            defaultValue = "",
+            dataType = DataType.TEXT)
+    private String discoveryMarkerFile;
+
+    @Autowired(required = false)
+    public void setDiscoveryMarkerFile(String discoveryMarkerFile) {
+        if (StringUtils.isNotEmpty(discoveryMarkerFile)) {
+            discoveryMarkerFile = discoveryMarkerFile.trim();
+        }
+        this.discoveryMarkerFile = discoveryMarkerFile;
+    }
+
+    public String getDiscoveryMarkerFile() {
+        return this.discoveryMarkerFile;
+    }
+
+    @ConfigProperty(name = "discovery_name_pattern", displayName = "Discovery - Name Pattern",
+            description = "Regular expression matching the directory names of deploy units, e.g. v?[0-9]+(\\.[0-9]+)*; leave empty to recognise units by depth or marker file.",
+            defaultValue = "",
+            dataType = DataType.TEXT)
+    private String discoveryNamePattern;
+
+    @Autowired(required = false)
+    public void setDiscoveryNamePattern(String discoveryNamePattern) {
+        if (StringUtils.isNotEmpty(discoveryNamePattern)) {
+            discoveryNamePattern = discoveryNamePattern.trim();
+        }
+        this.discoveryNamePattern = discoveryNamePattern;
+    }
+
+    public String getDiscoveryNamePattern() {
+        return this.discoveryNamePattern;
+    }
+
+    @ConfigProperty(name = "snapshot_keep_count", displayName = "Snapshots - Keep Count",
+            description = "Number of rollback snapshots to keep for each copy destination.",
+            defaultValue = "3",
+            dataType = DataType.NUMERIC)
+    private String snapshotKeepCount;
+
+    @Autowired(required = false)
+    public void setSnapshotKeepCount(String snapshotKeepCount) {
+        if (StringUtils.isNotEmpty(snapshotKeepCount)) {
+            snapshotKeepCount = snapshotKeepCount.trim();
+        }
+        this.snapshotKeepCount = snapshotKeepCount;
+    }
+
+    public String getSnapshotKeepCount() {
+        return this.snapshotKeepCount;
+    }
+
+    @ConfigProperty(name = "copy_durability", displayName = "Copy - Durability",
+            description = "Default sync of copied files to disk: none, per-file or end (one parallel sync when the copy is complete).",
+            defaultValue = "none",
+            dataType = DataType.TEXT)
+    private String copyDurability;
+
+    @Autowired(required = false)
+    public void setCopyDurability(String copyDurability) {
+        if (StringUtils.isNotEmpty(copyDurability)) {
+            copyDurability = copyDurability.trim();
+        }
+        this.copyDurability = copyDurability;
+    }
+
+    public String getCopyDurability() {
+        return this.copyDurability;
+    }
+
+    @ConfigProperty(name = "sftp_user", displayName = "SFTP - User",
+            description = "User name for sftp:// destinations that do not include one; defaults to the user running RLC.",
+            defaultValue = "",
+            dataType = DataType.TEXT)
+    private String sftpUser;
+
+    @Autowired(required = false)
+    public void setSftpUser(String sftpUser) {
+        if (StringUtils.isNotEmpty(sftpUser)) {
+            sftpUser = sftpUser.trim();
+        }
+        this.sftpUser = sftpUser;
+    }
+
+    public String getSftpUser() {
+        return this.sftpUser;
+    }
+
+    @ConfigProperty(name = "sftp_password", displayName = "SFTP - Password",
+            description = "Password for sftp:// destinations, if no private key is used.",
+            defaultValue = "",
+            dataType = DataType.PASSWORD)
+    private String sftpPassword;
+
+    @Autowired(required = false)
+    public void setSftpPassword(String sftpPassword) {
+        if (StringUtils.isNotEmpty(sftpPassword)) {
+            sftpPassword = sftpPassword.trim();
+        }
+        this.sftpPassword = sftpPassword;
+    }
+
+    public String getSftpPassword() {
+        return this.sftpPassword;
+    }
+
+    @ConfigProperty(name = "sftp_private_key_file", displayName = "SFTP - Private Key File",
+            description = "Private key file on the RLC server to authenticate to sftp:// destinations with.",
+            defaultValue = "",
+            dataType = DataType.TEXT)
+    private String sftpPrivateKeyFile;
+
+    @Autowired(required = false)
+    public void setSftpPrivateKeyFile(String sftpPrivateKeyFile) {
+        if (StringUtils.isNotEmpty(sftpPrivateKeyFile)) {
+            sftpPrivateKeyFile = sftpPrivateKeyFile.trim();
+        }
+        this.sftpPrivateKeyFile = sftpPrivateKeyFile;
+    }
+
+    public String getSftpPrivateKeyFile() {
+        return this.sftpPrivateKeyFile;
+    }
+
+    @ConfigProperty(name = "sftp_known_hosts_file", displayName = "SFTP - Known Hosts File",
+            description = "known_hosts file with the host keys of the sftp:// destinations to trust; defaults to ~/.ssh/known_hosts.",
+            defaultValue = "",
+            dataType = DataType.TEXT)
+    private String sftpKnownHostsFile;
+
+    @Autowired(required = false)
+    public void setSftpKnownHostsFile(String sftpKnownHostsFile) {
+        if (StringUtils.isNotEmpty(sftpKnownHostsFile)) {
+            sftpKnownHostsFile = sftpKnownHostsFile.trim();
+        }
+        this.sftpKnownHostsFile = sftpKnownHostsFile;
+    }
+
+    public String getSftpKnownHostsFile() {
+        return this.sftpKnownHostsFile;
+    }
+
+    @ConfigProperty(name = "sftp_channels", displayName = "SFTP - Channels",
+            description = "Number of files transferred at the same time over one connection to an sftp:// destination.",
+            defaultValue = "4",
+            dataType = DataType.NUMERIC)
+    private String sftpChannels;
+
+    @Autowired(required = false)
+    public void setSftpChannels(String sftpChannels) {
+        if (StringUtils.isNotEmpty(sftpChannels)) {
+            sftpChannels = sftpChannels.trim();
+        }
+        this.sftpChannels = sftpChannels;
+    }
+
+    public String getSftpChannels() {
+        return this.sftpChannels;
+    }
+
+    @ConfigProperty(name = "sftp_compression", displayName = "SFTP - Compression",
+            description = "Compress transfers to sftp:// destinations.",
+            defaultValue = "false",
+            dataType = DataType.BOOLEAN)
+    private String sftpCompression;
+
+    @Autowired(required = false)
+    public void setSftpCompression(String sftpCompression) {
+        if (StringUtils.isNotEmpty(sftpCompression)) {
+            sftpCompression = sftpCompression.trim();
+        }
+        this.sftpCompression = sftpCompression;
+    }
+
+    public String getSftpCompression() {
+        return this.sftpCompression;
+    }
+
     //================================================================================
     // Protected Methods
     //================================================================================
@@ -123,8 +393,28 @@ public abstract class FilesystemBaseProvider implements IBaseServiceProvider {
         }
     }
 
-    protected void setFilesystemConnectionDetails() {
-        filesystemClient.createConnection(getSession(), getBaseDir());
+    /**
+     * @return the deploy units of the base directory, as listed by the deploy unit provider and
+     * processed by retention and deduplication
+     */
+    protected DiscoveryOptions getDiscoveryOptions() throws ProviderException {
+        try {
+            return new DiscoveryOptions(NumberUtils.toInt(getDiscoveryDepth(), 1), getDiscoveryMarkerFile(), getDiscoveryNamePattern());
+        } catch (IllegalArgumentException e) {
+            throw new ProviderException("Invalid deploy unit name pattern " + getDiscoveryNamePattern() + ": " + e.getLocalizedMessage());
+        }
+    }
+
+    protected void setFilesystemConnectionDetails() throws ProviderException {
+        try {
+            DiscoveryOptions discoveryOptions = getDiscoveryOptions();
+            filesystemClient.createConnection(getSession(), getBaseDir(), getContentStoreDir(), discoveryOptions);
+            filesystemClient.scheduleRetention(new RetentionPolicy(NumberUtils.toInt(getRetentionKeepLast()),
+                    NumberUtils.toInt(getRetentionMaxAgeDays())), discoveryOptions);
+        } catch (FilesystemClientException e) {
+            logger.debug(e.getLocalizedMessage());
+            throw new ProviderException(e.getLocalizedMessage());
+        }
     }
 
     //================================================================================
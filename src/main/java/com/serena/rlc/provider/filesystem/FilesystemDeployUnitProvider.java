@@ -11,10 +11,13 @@ package com.serena.rlc.provider.filesystem;
 import com.serena.rlc.provider.annotations.*;
 import com.serena.rlc.provider.domain.*;
 import com.serena.rlc.provider.exceptions.ProviderException;
+import com.serena.rlc.provider.filesystem.client.DiscoveryOptions;
 import com.serena.rlc.provider.filesystem.domain.Directory;
+import com.serena.rlc.provider.filesystem.domain.DirectoryDiff;
 import com.serena.rlc.provider.filesystem.exception.FilesystemClientException;
 import com.serena.rlc.provider.spi.IDeployUnitProvider;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -83,30 +86,44 @@ public class FilesystemDeployUnitProvider extends FilesystemBaseProvider impleme
     @Override
     @Service(name = FIND_DEPLOY_UNITS, displayName = "Find Deploy Units", description = "Find versioned directories to use as deployment units.")
     @Params(params = {
-            @Param(fieldName = DIR_NAME_FILTER, displayName = "Deploy Unit Name Filter", description = "Deploy Unit name filter."),})
+            @Param(fieldName = DIR_NAME_FILTER, displayName = "Deploy Unit Name Filter", description = "Deploy Unit name filter."),
+            @Param(fieldName = SORT_ORDER, displayName = "Sort Order", description = "List deploy units by version, newest-first or oldest-first.", dataType = DataType.SELECT, defaultValue = NEWEST_FIRST),
+            @Param(fieldName = LATEST_VERSIONS, displayName = "Latest Versions", description = "Number of newest versions to list of each component, e.g. 1 for the latest only; 0 lists all.", dataType = DataType.NUMERIC, defaultValue = "0"),})
     public ProviderInfoResult findDeployUnits(List<Field> properties, Long startIndex, Long resultCount) throws ProviderException  {
         String dirNameFilter = null;
         Field field = Field.getFieldByName(properties, DIR_NAME_FILTER);
         if (field != null) {
             dirNameFilter = field.getValue();
         }
+        boolean newestFirst = true;
+        field = Field.getFieldByName(properties, SORT_ORDER);
+        if (field != null && StringUtils.isNotEmpty(field.getValue())) {
+            if (OLDEST_FIRST.equalsIgnoreCase(field.getValue().trim())) {
+                newestFirst = false;
+            } else if (!NEWEST_FIRST.equalsIgnoreCase(field.getValue().trim())) {
+                throw new ProviderException("Unsupported sort order " + field.getValue() + ", expected " + NEWEST_FIRST + " or " + OLDEST_FIRST);
+            }
+        }
+        int latestVersions = 0;
+        field = Field.getFieldByName(properties, LATEST_VERSIONS);
+        if (field != null && StringUtils.isNotEmpty(field.getValue())) {
+            latestVersions = Math.max(0, NumberUtils.toInt(field.getValue().trim()));
+        }
 
         List<ProviderInfo> list = new ArrayList<>();
 
         setFilesystemConnectionDetails();
         try {
-            List<Directory> directories = filesystemClient.getDirectories(dirNameFilter);
-            if (directories != null) {
-                ProviderInfo pDUInfo;
-                for (Directory fsdir : directories) {
-                    pDUInfo = new ProviderInfo(fsdir.getId(), fsdir.getName(), "Directory", fsdir.getName());
-                    if (StringUtils.isEmpty(fsdir.getId())) {
-                        pDUInfo.setId(fsdir.getName());
-                    }
-                    pDUInfo.setUrl("file:///" + this.getBaseDir() + File.separator + fsdir.getName());
-                    pDUInfo.setDescription(fsdir.getDescription());
-                    list.add(pDUInfo);
+            List<Directory> directories = filesystemClient.getDeployUnits(dirNameFilter, getDiscoveryOptions(), newestFirst, latestVersions);
+            ProviderInfo pDUInfo;
+            for (Directory fsdir : directories) {
+                pDUInfo = new ProviderInfo(fsdir.getId(), fsdir.getName(), "Directory", fsdir.getName());
+                if (StringUtils.isEmpty(fsdir.getId())) {
+                    pDUInfo.setId(fsdir.getName());
                 }
+                pDUInfo.setUrl("file:///" + this.getBaseDir() + File.separator + fsdir.getName());
+                pDUInfo.setDescription(fsdir.getDescription());
+                list.add(pDUInfo);
             }
         } catch (FilesystemClientException e) {
             logger.debug(e.getLocalizedMessage());
@@ -139,9 +156,55 @@ public class FilesystemDeployUnitProvider extends FilesystemBaseProvider impleme
 
     }
 
+    @Service(name = DIFF_DEPLOY_UNITS, displayName = "Diff Deploy Units", description = "List the files added, removed or modified between two deploy units.")
+    @Params(params = {
+            @Param(fieldName = FROM_DIR_NAME, displayName = "From Deploy Unit", description = "Deploy unit to compare from, e.g. v1.0", required = true, deployUnit = true),
+            @Param(fieldName = TO_DIR_NAME, displayName = "To Deploy Unit", description = "Deploy unit to compare to, e.g. v1.1", required = true, deployUnit = true),}
+    )
+    public ProviderInfoResult diffDeployUnits(List<Field> properties) throws ProviderException {
+        Field fromField = Field.getFieldByName(properties, FROM_DIR_NAME);
+        if (fromField == null || StringUtils.isEmpty(fromField.getValue())) {
+            throw new ProviderException("Missing required field: " + FROM_DIR_NAME);
+        }
+        Field toField = Field.getFieldByName(properties, TO_DIR_NAME);
+        if (toField == null || StringUtils.isEmpty(toField.getValue())) {
+            throw new ProviderException("Missing required field: " + TO_DIR_NAME);
+        }
+
+        List<ProviderInfo> list = new ArrayList<>();
+
+        setFilesystemConnectionDetails();
+        try {
+            DirectoryDiff diff = filesystemClient.diffDirectories(this.getBaseDir() + File.separator + fromField.getValue(),
+                    this.getBaseDir() + File.separator + toField.getValue());
+            ProviderInfo pChangeInfo;
+            for (DirectoryDiff.Change change : diff.getChanges()) {
+                pChangeInfo = new ProviderInfo(change.getPath(), change.getPath(), change.getType().name(), change.getPath());
+                pChangeInfo.setDescription(change.getType().name() + " (" + (change.getSizeDelta() >= 0 ? "+" : "") + change.getSizeDelta() + " bytes)");
+                List<Field> changeFields = new ArrayList<>();
+                addField(changeFields, "oldSize", "Old Size", String.valueOf(change.getOldSize()));
+                addField(changeFields, "newSize", "New Size", String.valueOf(change.getNewSize()));
+                addField(changeFields, "sizeDelta", "Size Delta", String.valueOf(change.getSizeDelta()));
+                pChangeInfo.setProperties(changeFields);
+                list.add(pChangeInfo);
+            }
+        } catch (FilesystemClientException e) {
+            logger.debug(e.getLocalizedMessage());
+            throw new ProviderException(e.getLocalizedMessage());
+        }
+        return new ProviderInfoResult(0, list.size(), list.toArray(new ProviderInfo[list.size()]));
+    }
+
     @Override
     public FieldInfo getFieldValues(String fieldName, List<Field> properties) throws ProviderException {
         switch (fieldName) {
+            case SORT_ORDER:
+                FieldInfo fieldInfo = new FieldInfo(fieldName);
+                List<FieldValueInfo> values = new ArrayList<FieldValueInfo>();
+                values.add(new FieldValueInfo(NEWEST_FIRST, NEWEST_FIRST));
+                values.add(new FieldValueInfo(OLDEST_FIRST, OLDEST_FIRST));
+                fieldInfo.setValues(values);
+                return fieldInfo;
             default: // ignore
         }
 
@@ -152,37 +215,34 @@ public class FilesystemDeployUnitProvider extends FilesystemBaseProvider impleme
     public ServiceInfo getServiceInfo(String service)
             throws ProviderException {
 
-        return AnnotationUtil.getServiceInfo(this.getClass(), service);
+        return ProviderMetadata.of(this.getClass()).getServiceInfo(service);
     }
 
     @Override
     public ServiceInfoResult getServices()
             throws ProviderException {
 
-        List<ServiceInfo> services = AnnotationUtil.getServices(this.getClass());
-        return new ServiceInfoResult(0, services.size(), services.toArray(new ServiceInfo[services.size()]));
+        return ProviderMetadata.of(this.getClass()).getServices();
     }
 
     @Override
     public FieldValuesGetterFunction findFieldValuesGetterFunction(String fieldName)
             throws ProviderException {
 
-        return AnnotationUtil.findFieldValuesGetterFunction(this.getClass(), fieldName);
+        return ProviderMetadata.of(this.getClass()).getFieldValuesGetterFunction(fieldName);
     }
 
     @Override
     public FieldValuesGetterFunctionResult findFieldValuesGetterFunctions()
             throws ProviderException {
 
-        List<FieldValuesGetterFunction> getters = AnnotationUtil.findFieldValuesGetterFunctions(this.getClass());
-        return new FieldValuesGetterFunctionResult(0, getters.size(), getters.toArray(new FieldValuesGetterFunction[getters.size()]));
+        return ProviderMetadata.of(this.getClass()).getFieldValuesGetterFunctions();
     }
 
     @Override
     public ConfigurationPropertyResult getConfigurationProperties() throws ProviderException {
 
-        List<ConfigurationProperty> configProps = AnnotationUtil.getConfigurationProperties(this.getClass(), this);
-        return new ConfigurationPropertyResult(0, configProps.size(), configProps.toArray(new ConfigurationProperty[configProps.size()]));
+        return ProviderMetadata.of(this.getClass()).getConfigurationProperties(this);
     }
 
     //================================================================================
@@ -12,10 +12,18 @@ import com.serena.rlc.provider.annotations.*;
 import com.serena.rlc.provider.data.model.IActionInfo;
 import com.serena.rlc.provider.domain.*;
 import com.serena.rlc.provider.exceptions.ProviderException;
-import com.serena.rlc.provider.filesystem.domain.Directory;
+import com.serena.rlc.provider.filesystem.client.CopyOptions;
+import com.serena.rlc.provider.filesystem.client.Durability;
+import com.serena.rlc.provider.filesystem.client.Progress;
+import com.serena.rlc.provider.filesystem.client.TransferBackends;
+import com.serena.rlc.provider.filesystem.client.TransferSettings;
+import com.serena.rlc.provider.filesystem.domain.CopyResult;
 import com.serena.rlc.provider.filesystem.exception.FilesystemClientException;
+import com.serena.rlc.provider.filesystem.metrics.FilesystemMetrics;
+import com.serena.rlc.provider.filesystem.metrics.OperationMetrics;
 import com.serena.rlc.provider.spi.IExecutionProvider;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -32,10 +40,17 @@ public class FilesystemExecutionProvider extends FilesystemBaseProvider implemen
     protected String destDir;
     protected String deleteDir;
     protected boolean preserveDates = true;
+    protected boolean linkFromStore = false;
+    protected boolean mirror = false;
+    protected boolean snapshot = false;
+    protected Durability durability;
+    protected String rollbackDir;
     protected boolean ignoreNotExists = true;
     protected String execScript;
     protected String execDir;
     protected String execParams;
+    protected long actionFiles;
+    protected long actionBytes;
 
     //================================================================================
     // Configuration Properties
@@ -97,14 +112,7 @@ public class FilesystemExecutionProvider extends FilesystemBaseProvider implemen
             @Param(fieldName = PROPERTIES, description = "Filesystem action properties", required = true)
     })
     public ExecutionInfo execute(String action, String taskTitle, String taskDescription, List<Field> properties) throws ProviderException {
-        if (action.equalsIgnoreCase(COPY_DIR))
-            return localCopy(properties, false);
-        else if (action.equalsIgnoreCase(DELETE_DIR))
-            return localDelete(properties, false);
-        else if (action.equalsIgnoreCase(EXEC_SCRIPT))
-            return localExec(properties, false);
-
-        throw new ProviderException("Unsupported execution action: " + action);
+        return measure(action, properties, false);
     }
 
     @Service(name = VALIDATE, displayName = "Validate", description = "Validate Filesystem action.")
@@ -113,14 +121,7 @@ public class FilesystemExecutionProvider extends FilesystemBaseProvider implemen
     })
     @Override
     public ExecutionInfo validate(String action, String taskTitle, String taskDescription, List<Field> properties) throws ProviderException {
-        if (action.equalsIgnoreCase(COPY_DIR))
-            return localCopy(properties, true);
-        else if (action.equalsIgnoreCase(DELETE_DIR))
-            return localDelete(properties, true);
-        else if (action.equalsIgnoreCase(EXEC_SCRIPT))
-            return localExec(properties, true);
-
-        throw new ProviderException("Unsupported execution action: " + action);
+        return measure(action, properties, true);
     }
 
     @Override
@@ -144,6 +145,16 @@ public class FilesystemExecutionProvider extends FilesystemBaseProvider implemen
             return fieldInfo;
         }
 
+        if (fieldName.equalsIgnoreCase(DURABILITY)) {
+            FieldInfo fieldInfo = new FieldInfo(fieldName);
+            List<FieldValueInfo> values = new ArrayList<FieldValueInfo>();
+            for (Durability value : Durability.values()) {
+                values.add(new FieldValueInfo(value.getValue(), value.getValue()));
+            }
+            fieldInfo.setValues(values);
+            return fieldInfo;
+        }
+
         throw new ProviderException("Unsupported get values for field name: " + fieldName);
     }
 
@@ -167,7 +178,8 @@ public class FilesystemExecutionProvider extends FilesystemBaseProvider implemen
             throw new ProviderException("A destination directory needs to be supplied");
         } else {
             this.destDir = field.getValue();
-            if (!filesystemClient.directoryExists(destDir))
+            // remote destinations are created by their transfer backend
+            if (!TransferBackends.isRemote(destDir) && !filesystemClient.directoryExists(destDir))
                 throw new ProviderException("Directory " + destDir + " does not exist");
             logger.debug("Using destination directory: " + destDir);
         }
@@ -178,13 +190,60 @@ public class FilesystemExecutionProvider extends FilesystemBaseProvider implemen
             logger.debug("Using preserve dates option: " + preserveDates);
         }
 
+        field = Field.getFieldByName(properties, LINK_FROM_STORE);
+        if (field != null && StringUtils.isNotEmpty(field.getValue())) {
+            linkFromStore = Boolean.parseBoolean(field.getValue());
+            logger.debug("Using link from content store option: " + linkFromStore);
+        }
+
+        field = Field.getFieldByName(properties, MIRROR);
+        if (field != null && StringUtils.isNotEmpty(field.getValue())) {
+            mirror = Boolean.parseBoolean(field.getValue());
+            logger.debug("Using mirror option: " + mirror);
+        }
+
+        field = Field.getFieldByName(properties, SNAPSHOT);
+        if (field != null && StringUtils.isNotEmpty(field.getValue())) {
+            snapshot = Boolean.parseBoolean(field.getValue());
+            logger.debug("Using snapshot option: " + snapshot);
+        }
+
+        field = Field.getFieldByName(properties, DURABILITY);
+        String durabilityValue;
+        if (field != null && StringUtils.isNotEmpty(field.getValue())) {
+            durabilityValue = field.getValue();
+        } else if (TransferBackends.isRemote(destDir)) {
+            // the server-wide default only applies to local destinations, transfer backends cannot sync
+            durabilityValue = null;
+        } else {
+            durabilityValue = getCopyDurability();
+        }
+        try {
+            durability = StringUtils.isNotEmpty(durabilityValue) ? Durability.fromValue(durabilityValue.trim()) : Durability.NONE;
+            logger.debug("Using durability option: " + durability);
+        } catch (IllegalArgumentException e) {
+            throw new ProviderException(e.getLocalizedMessage());
+        }
+
+        // fail before the deployment window is used up rather than with a full volume
+        setFilesystemConnectionDetails();
+        try {
+            logger.debug("Copy preflight " + filesystemClient.preflightCopy(srcDir, destDir, getCopyOptions()));
+        } catch (FilesystemClientException e) {
+            throw new ProviderException(e.getLocalizedMessage());
+        }
+
         return true;
     }
 
     @Action(name = COPY_DIR, displayName = "Copy Directory", description = "Execute Local Copy action.")
     @Params(params = {
-            @Param(fieldName = DEST_DIR, displayName = "Destination Directory", description = "Destination Directory", required = true, environmentProperty = true, deployUnit = false, dataType = DataType.TEXT),
+            @Param(fieldName = DEST_DIR, displayName = "Destination Directory", description = "Destination Directory, or sftp://[user@]host[:port]/path to copy to another host", required = true, environmentProperty = true, deployUnit = false, dataType = DataType.TEXT),
             @Param(fieldName = PRESERVE_DATES, displayName = "Preserve Dates", description = "Try and preserve dates and time Files and Directories", required = false, deployUnit = false, dataType = DataType.BOOLEAN, defaultValue = "true"),
+            @Param(fieldName = SNAPSHOT, displayName = "Snapshot Destination", description = "Keep a hard-linked snapshot of the destination so the copy can be rolled back", required = false, deployUnit = false, dataType = DataType.BOOLEAN, defaultValue = "false"),
+            @Param(fieldName = MIRROR, displayName = "Mirror", description = "Only copy changed files and delete destination files that do not exist in the source", required = false, deployUnit = false, dataType = DataType.BOOLEAN, defaultValue = "false"),
+            @Param(fieldName = DURABILITY, displayName = "Durability", description = "Sync copied files to disk: none, per-file, or end (one parallel sync when the copy is complete)", required = false, deployUnit = false, dataType = DataType.SELECT, defaultValue = "none"),
+            @Param(fieldName = LINK_FROM_STORE, displayName = "Link From Content Store", description = "Hard link files already held in the content store instead of copying them (destination must be on the same volume). Linked files share their content with the deploy unit and every other linked destination: a file modified in place, e.g. by a script or an editor, changes all of them, so only link destinations whose files are replaced, never edited", required = false, deployUnit = false, dataType = DataType.BOOLEAN, defaultValue = "false"),
             @Param(fieldName = SRC_DIR, displayName = "Source Directory", description = "Source Directory", required = true, deployUnit = true, dataType = DataType.SELECT)
     })
     public ExecutionInfo localCopy(List<Field> properties, Boolean validateOnly) throws ProviderException {
@@ -198,8 +257,12 @@ public class FilesystemExecutionProvider extends FilesystemBaseProvider implemen
             }
 
             //execInfo.setStatus(ExecutionStatus.IN_PROGRESS);
-            filesystemClient.localCopy(srcDir, destDir, preserveDates);
+            setFilesystemConnectionDetails();
+            CopyResult result = filesystemClient.localCopy(srcDir, destDir, getCopyOptions());
+            actionFiles = result.getFilesCopied() + result.getFilesLinked();
+            actionBytes = result.getBytesCopied();
             execInfo.setSuccess(true);
+            execInfo.setMessage(result.getSummary());
             execInfo.setStatus(ExecutionStatus.COMPLETED);
             return execInfo;
 
@@ -208,7 +271,69 @@ public class FilesystemExecutionProvider extends FilesystemBaseProvider implemen
             if (validateOnly) {
                 execInfo.setMessage(e.getLocalizedMessage());
             } else {
-                execInfo.setMessage("Unable to execute Filesystem action: " + COPY_DIR);
+                execInfo.setMessage("Unable to execute Filesystem action: " + COPY_DIR + ": " + e.getLocalizedMessage());
+                execInfo.setStatus(ExecutionStatus.FAILED);
+            }
+            return execInfo;
+
+        } catch (ProviderException e) {
+            if (validateOnly) {
+                execInfo.setSuccess(false);
+                execInfo.setMessage(e.getLocalizedMessage());
+                return execInfo;
+            }
+
+            throw e;
+        }
+    }
+
+    public Boolean validateRollbackDir(List<Field> properties) throws ProviderException {
+        if (properties == null || properties.size() < 1)
+            throw new ProviderException("Missing required field properties!");
+
+        Field field = Field.getFieldByName(properties, DEST_DIR);
+        if (field == null || StringUtils.isEmpty(field.getValue())) {
+            throw new ProviderException("A destination directory needs to be supplied");
+        } else {
+            rollbackDir = field.getValue();
+            try {
+                if (!filesystemClient.hasSnapshot(rollbackDir))
+                    throw new ProviderException("Directory " + rollbackDir + " has no snapshot to roll back to");
+            } catch (FilesystemClientException e) {
+                throw new ProviderException(e.getLocalizedMessage());
+            }
+            logger.debug("Using rollback directory: " + rollbackDir);
+        }
+
+        return true;
+    }
+
+    @Action(name = ROLLBACK_DIR, displayName = "Rollback Directory (local)", description = "Restore the destination directory from the snapshot taken by the last Copy Directory action.")
+    @Params(params = {
+            @Param(fieldName = DEST_DIR, displayName = "Destination Directory", description = "Destination Directory to roll back", required = true, environmentProperty = true, deployUnit = false, dataType = DataType.TEXT),
+    })
+    public ExecutionInfo localRollback(List<Field> properties, Boolean validateOnly) throws ProviderException {
+        ExecutionInfo execInfo = new ExecutionInfo();
+        try {
+            Boolean bValid = validateRollbackDir(properties);
+            if (validateOnly) {
+                execInfo.setSuccess(bValid);
+                execInfo.setMessage("Valid Filesystem action: " + ROLLBACK_DIR);
+                return execInfo;
+            }
+
+            String restored = filesystemClient.rollbackDir(rollbackDir);
+            execInfo.setSuccess(true);
+            execInfo.setMessage("Restored snapshot " + restored + " of " + rollbackDir);
+            execInfo.setStatus(ExecutionStatus.COMPLETED);
+            return execInfo;
+
+        } catch (FilesystemClientException e) {
+            execInfo.setSuccess(false);
+            if (validateOnly) {
+                execInfo.setMessage(e.getLocalizedMessage());
+            } else {
+                execInfo.setMessage("Unable to execute Filesystem action: " + ROLLBACK_DIR);
                 execInfo.setStatus(ExecutionStatus.FAILED);
             }
             return execInfo;
@@ -244,6 +369,12 @@ public class FilesystemExecutionProvider extends FilesystemBaseProvider implemen
             logger.debug("Using ignore not exists option: " + ignoreNotExists);
         }
 
+        try {
+            filesystemClient.checkNotInUse(deleteDir);
+        } catch (FilesystemClientException e) {
+            throw new ProviderException(e.getLocalizedMessage());
+        }
+
         return true;
     }
 
@@ -272,7 +403,7 @@ public class FilesystemExecutionProvider extends FilesystemBaseProvider implemen
             if (validateOnly) {
                 execInfo.setMessage(e.getLocalizedMessage());
             } else {
-                execInfo.setMessage("Unable to execute Filesystem action: " + DELETE_DIR);
+                execInfo.setMessage("Unable to execute Filesystem action: " + DELETE_DIR + ": " + e.getLocalizedMessage());
                 execInfo.setStatus(ExecutionStatus.FAILED);
             }
             return execInfo;
@@ -369,6 +500,31 @@ public class FilesystemExecutionProvider extends FilesystemBaseProvider implemen
         }
     }
 
+    @Service(name = GET_PROGRESS, displayName = "Get Progress", description = "Report the progress of a running Copy Directory or Delete Directory action.")
+    @Params(params = {
+            @Param(fieldName = DEST_DIR, displayName = "Directory", description = "Destination directory of the copy, or the directory being deleted", required = true, environmentProperty = true, deployUnit = false, dataType = DataType.TEXT),
+    })
+    public ExecutionInfo getProgress(List<Field> properties) throws ProviderException {
+        Field field = Field.getFieldByName(properties, DEST_DIR);
+        if (field == null || StringUtils.isEmpty(field.getValue())) {
+            field = Field.getFieldByName(properties, DELETE_DIR);
+        }
+        if (field == null || StringUtils.isEmpty(field.getValue())) {
+            throw new ProviderException("Missing required field: " + DEST_DIR);
+        }
+
+        ExecutionInfo execInfo = new ExecutionInfo();
+        Progress progress = filesystemClient.getProgress(field.getValue());
+        execInfo.setSuccess(true);
+        if (progress == null) {
+            execInfo.setMessage("No Filesystem action in progress for " + field.getValue());
+        } else {
+            execInfo.setStatus(ExecutionStatus.IN_PROGRESS);
+            execInfo.setMessage(progress.getSummary());
+        }
+        return execInfo;
+    }
+
     @Override
     public ExecutionInfo cancelExecution(ExecutionInfo executionInfo, String action, String taskTitle, String taskDescription, List<Field> properties) throws ProviderException {
         return new ExecutionInfo("Cancellation not required", true);
@@ -383,51 +539,120 @@ public class FilesystemExecutionProvider extends FilesystemBaseProvider implemen
     public ServiceInfo getServiceInfo(String service)
             throws ProviderException {
 
-        return AnnotationUtil.getServiceInfo(this.getClass(), service);
+        return ProviderMetadata.of(this.getClass()).getServiceInfo(service);
     }
 
     @Override
     public ServiceInfoResult getServices()
             throws ProviderException {
 
-        List<ServiceInfo> services = AnnotationUtil.getServices(this.getClass());
-        return new ServiceInfoResult(0, services.size(), services.toArray(new ServiceInfo[services.size()]));
+        return ProviderMetadata.of(this.getClass()).getServices();
     }
 
     @Override
     public ActionInfo getActionInfo(String action)
             throws ProviderException {
 
-        return AnnotationUtil.getActionInfo(this.getClass(), action);
+        return ProviderMetadata.of(this.getClass()).getActionInfo(action);
     }
 
     @Override
     public ActionInfoResult getActions()
             throws ProviderException {
 
-        List<ActionInfo> actions = AnnotationUtil.getActions(this.getClass());
-        return new ActionInfoResult(0, actions.size(), actions.toArray(new ActionInfo[actions.size()]));
+        return ProviderMetadata.of(this.getClass()).getActions();
     }
 
     @Override
     public FieldValuesGetterFunction findFieldValuesGetterFunction(String fieldName)
             throws ProviderException {
 
-        return AnnotationUtil.findFieldValuesGetterFunction(this.getClass(), fieldName);
+        return ProviderMetadata.of(this.getClass()).getFieldValuesGetterFunction(fieldName);
     }
 
     @Override
     public FieldValuesGetterFunctionResult findFieldValuesGetterFunctions()
             throws ProviderException {
-        List<FieldValuesGetterFunction> getters = AnnotationUtil.findFieldValuesGetterFunctions(this.getClass());
-        return new FieldValuesGetterFunctionResult(0, getters.size(), getters.toArray(new FieldValuesGetterFunction[getters.size()]));
+        return ProviderMetadata.of(this.getClass()).getFieldValuesGetterFunctions();
     }
 
     @Override
     public ConfigurationPropertyResult getConfigurationProperties() throws ProviderException {
 
-        List<ConfigurationProperty> configProps = AnnotationUtil.getConfigurationProperties(this.getClass(), this);
-        return new ConfigurationPropertyResult(0, configProps.size(), configProps.toArray(new ConfigurationProperty[configProps.size()]));
+        return ProviderMetadata.of(this.getClass()).getConfigurationProperties(this);
+    }
+
+    //================================================================================
+    // Private Methods
+    //================================================================================
+
+    private CopyOptions getCopyOptions() {
+        CopyOptions options = new CopyOptions(preserveDates);
+        options.setLinkFromStore(linkFromStore);
+        options.setMirror(mirror);
+        options.setSnapshot(snapshot);
+        options.setSnapshotLimit(NumberUtils.toInt(getSnapshotKeepCount(), options.getSnapshotLimit()));
+        options.setDurability(durability);
+        if (TransferBackends.isRemote(destDir)) {
+            TransferSettings settings = new TransferSettings();
+            if (StringUtils.isNotEmpty(getSftpUser())) {
+                settings.setUser(getSftpUser());
+            }
+            settings.setPassword(StringUtils.trimToNull(getSftpPassword()));
+            settings.setPrivateKeyFile(StringUtils.trimToNull(getSftpPrivateKeyFile()));
+            settings.setKnownHostsFile(StringUtils.trimToNull(getSftpKnownHostsFile()));
+            settings.setChannels(NumberUtils.toInt(getSftpChannels(), settings.getChannels()));
+            settings.setCompression(Boolean.parseBoolean(getSftpCompression()));
+            options.setTransferSettings(settings);
+        }
+        return options;
+    }
+
+    /**
+     * Run {@code action} and record its duration, files and bytes in the metrics of this provider.
+     * Executions also get a one line summary appended to their message.
+     */
+    private ExecutionInfo measure(String action, List<Field> properties, boolean validateOnly) throws ProviderException {
+        String name;
+        if (action.equalsIgnoreCase(COPY_DIR))
+            name = COPY_DIR;
+        else if (action.equalsIgnoreCase(DELETE_DIR))
+            name = DELETE_DIR;
+        else if (action.equalsIgnoreCase(EXEC_SCRIPT))
+            name = EXEC_SCRIPT;
+        else if (action.equalsIgnoreCase(ROLLBACK_DIR))
+            name = ROLLBACK_DIR;
+        else
+            throw new ProviderException("Unsupported execution action: " + action);
+
+        OperationMetrics metrics = FilesystemMetrics.get(getProviderName(), validateOnly ? name + ".validate" : name);
+        actionFiles = 0;
+        actionBytes = 0;
+        long start = System.nanoTime();
+        ExecutionInfo execInfo = null;
+        try {
+            if (name.equals(COPY_DIR))
+                execInfo = localCopy(properties, validateOnly);
+            else if (name.equals(DELETE_DIR))
+                execInfo = localDelete(properties, validateOnly);
+            else if (name.equals(EXEC_SCRIPT))
+                execInfo = localExec(properties, validateOnly);
+            else
+                execInfo = localRollback(properties, validateOnly);
+            return execInfo;
+
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            if (execInfo != null && Boolean.TRUE.equals(execInfo.getSuccess())) {
+                metrics.record(elapsed, actionFiles, actionBytes);
+            } else {
+                metrics.recordError(elapsed);
+            }
+            if (execInfo != null && !validateOnly) {
+                String summary = FilesystemMetrics.summary(name, elapsed, actionBytes);
+                execInfo.setMessage(StringUtils.isNotEmpty(execInfo.getMessage()) ? execInfo.getMessage() + "; " + summary : summary);
+            }
+        }
     }
 
 }
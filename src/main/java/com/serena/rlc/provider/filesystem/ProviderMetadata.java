@@ -0,0 +1,207 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem;
+
+import com.serena.rlc.provider.annotations.AnnotationUtil;
+import com.serena.rlc.provider.annotations.ConfigProperty;
+import com.serena.rlc.provider.domain.*;
+import com.serena.rlc.provider.exceptions.ProviderException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Action, service, getter and configuration property descriptors of a provider class, read from
+ * its annotations once per class instead of on every call. Providers are prototype beans, so
+ * without the cache every instance repeats the reflection, and the RLC UI asks for the
+ * descriptors on nearly every request.
+ * <p>
+ * The descriptors are shared by all instances of the class and must not be modified by callers.
+ * Configuration property values differ per instance, so the SDK result is kept together with the
+ * field values it was read from and is only asked for again when an instance is configured
+ * differently.
+ *
+ * @author klee
+ */
+final class ProviderMetadata {
+    private static final Logger logger = LoggerFactory.getLogger(ProviderMetadata.class);
+
+    private static final ConcurrentMap<Class<?>, ProviderMetadata> metadata = new ConcurrentHashMap<>();
+
+    private final Class<?> providerClass;
+    private final ServiceInfo[] services;
+    private final ActionInfo[] actions;
+    private final FieldValuesGetterFunction[] getters;
+    private final java.lang.reflect.Field[] configFields;
+    private final ConcurrentMap<String, ServiceInfo> serviceInfos = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ActionInfo> actionInfos = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, FieldValuesGetterFunction> getterInfos = new ConcurrentHashMap<>();
+    private volatile ConfigSnapshot configSnapshot;
+
+    private ProviderMetadata(Class<?> providerClass) throws ProviderException {
+        this.providerClass = providerClass;
+        List<ServiceInfo> serviceList = AnnotationUtil.getServices(providerClass);
+        services = serviceList.toArray(new ServiceInfo[serviceList.size()]);
+        List<ActionInfo> actionList = AnnotationUtil.getActions(providerClass);
+        actions = actionList.toArray(new ActionInfo[actionList.size()]);
+        List<FieldValuesGetterFunction> getterList = AnnotationUtil.findFieldValuesGetterFunctions(providerClass);
+        getters = getterList.toArray(new FieldValuesGetterFunction[getterList.size()]);
+        configFields = findConfigFields(providerClass);
+    }
+
+    /**
+     * @return the descriptors of {@code providerClass}, read from its annotations on first use
+     */
+    static ProviderMetadata of(Class<?> providerClass) throws ProviderException {
+        ProviderMetadata cached = metadata.get(providerClass);
+        if (cached == null) {
+            long start = System.nanoTime();
+            ProviderMetadata created = new ProviderMetadata(providerClass);
+            cached = metadata.putIfAbsent(providerClass, created);
+            if (cached == null) {
+                cached = created;
+                logger.debug("Read provider metadata of " + providerClass.getName() + " in " + (System.nanoTime() - start) / 1000 + " us");
+            }
+        }
+        return cached;
+    }
+
+    ServiceInfoResult getServices() {
+        return new ServiceInfoResult(0, services.length, services.clone());
+    }
+
+    ActionInfoResult getActions() {
+        return new ActionInfoResult(0, actions.length, actions.clone());
+    }
+
+    FieldValuesGetterFunctionResult getFieldValuesGetterFunctions() {
+        return new FieldValuesGetterFunctionResult(0, getters.length, getters.clone());
+    }
+
+    ServiceInfo getServiceInfo(String service) throws ProviderException {
+        String key = key(service);
+        ServiceInfo info = serviceInfos.get(key);
+        if (info == null) {
+            info = AnnotationUtil.getServiceInfo(providerClass, service);
+            if (info != null) {
+                serviceInfos.putIfAbsent(key, info);
+            }
+        }
+        return info;
+    }
+
+    ActionInfo getActionInfo(String action) throws ProviderException {
+        String key = key(action);
+        ActionInfo info = actionInfos.get(key);
+        if (info == null) {
+            info = AnnotationUtil.getActionInfo(providerClass, action);
+            if (info != null) {
+                actionInfos.putIfAbsent(key, info);
+            }
+        }
+        return info;
+    }
+
+    FieldValuesGetterFunction getFieldValuesGetterFunction(String fieldName) throws ProviderException {
+        String key = key(fieldName);
+        FieldValuesGetterFunction getter = getterInfos.get(key);
+        if (getter == null) {
+            getter = AnnotationUtil.findFieldValuesGetterFunction(providerClass, fieldName);
+            if (getter != null) {
+                getterInfos.putIfAbsent(key, getter);
+            }
+        }
+        return getter;
+    }
+
+    /**
+     * @return the configuration properties of {@code provider} as returned by
+     * {@link AnnotationUtil#getConfigurationProperties(Class, Object)}; the SDK result is cached per
+     * class and only asked for again when the configured values differ from those it was read with
+     */
+    ConfigurationPropertyResult getConfigurationProperties(Object provider) throws ProviderException {
+        Object[] values = new Object[configFields.length];
+        try {
+            for (int i = 0; i < configFields.length; i++) {
+                values[i] = configFields[i].get(provider);
+            }
+        } catch (IllegalAccessException e) {
+            logger.error(e.getMessage());
+            throw new ProviderException(e.getMessage());
+        }
+        ConfigSnapshot snapshot = configSnapshot;
+        if (snapshot == null || !Arrays.equals(snapshot.values, values)) {
+            List<ConfigurationProperty> configList = AnnotationUtil.getConfigurationProperties(providerClass, provider);
+            snapshot = new ConfigSnapshot(values, configList.toArray(new ConfigurationProperty[configList.size()]));
+            configSnapshot = snapshot;
+        }
+        ConfigurationProperty[] configProps = new ConfigurationProperty[snapshot.properties.length];
+        for (int i = 0; i < configProps.length; i++) {
+            configProps[i] = copyOf(snapshot.properties[i]);
+        }
+        return new ConfigurationPropertyResult(0, configProps.length, configProps);
+    }
+
+    //================================================================================
+    // Private Methods
+    //================================================================================
+
+    private static ConfigurationProperty copyOf(ConfigurationProperty configProp) {
+        ConfigurationProperty copy = new ConfigurationProperty(configProp.getName(), configProp.getDisplayName(),
+                configProp.getDescription(), configProp.getDataType(), configProp.getDefaultValue());
+        copy.setValue(configProp.getValue());
+        return copy;
+    }
+
+    private static String key(String name) {
+        return name == null ? "" : name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The fields annotated with {@link ConfigProperty} in the class and its direct superclass, the
+     * ones {@link AnnotationUtil} reads the values of.
+     */
+    private static java.lang.reflect.Field[] findConfigFields(Class<?> providerClass) {
+        List<java.lang.reflect.Field> fields = new ArrayList<>();
+        addConfigFields(providerClass, fields);
+        if (providerClass.getSuperclass() != null) {
+            addConfigFields(providerClass.getSuperclass(), fields);
+        }
+        return fields.toArray(new java.lang.reflect.Field[fields.size()]);
+    }
+
+    private static void addConfigFields(Class<?> type, List<java.lang.reflect.Field> fields) {
+        for (java.lang.reflect.Field field : type.getDeclaredFields()) {
+            if (field.getAnnotation(ConfigProperty.class) != null) {
+                field.setAccessible(true);
+                fields.add(field);
+            }
+        }
+    }
+
+    /**
+     * The SDK configuration properties together with the raw field values they were read from.
+     */
+    private static final class ConfigSnapshot {
+        private final Object[] values;
+        private final ConfigurationProperty[] properties;
+
+        private ConfigSnapshot(Object[] values, ConfigurationProperty[] properties) {
+            this.values = values;
+            this.properties = properties;
+        }
+    }
+}
@@ -0,0 +1,445 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+import com.serena.rlc.provider.filesystem.domain.Manifest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Content-addressable store for deploy unit files. Every distinct file content (and permission set)
+ * is kept once below {@code objects/}, keyed by its SHA-256 hash, and deploy unit directories refer
+ * to the stored objects through hard links. A manifest of every deduplicated unit is kept below
+ * {@code manifests/} so that copies can link files instead of reading them.
+ * <p>
+ * The store must live on the same volume as the directories it deduplicates. Linked files share
+ * the content, modification time and permissions of the stored object: writing into one of them
+ * changes every deploy unit and copy destination linked to it, so linked files may only be
+ * replaced, as the copy engine does, never modified in place. Units are only deduplicated while
+ * no copy reads them, see {@link #setUnitLocks(DeployUnitLocks)}.
+ *
+ * @author klee
+ */
+public class ContentStore {
+    private static final Logger logger = LoggerFactory.getLogger(ContentStore.class);
+
+    private static final String OBJECTS_DIR = "objects";
+    private static final String MANIFESTS_DIR = "manifests";
+    private static final String MANIFEST_SUFFIX = ".mf";
+    private static final String TEMP_SUFFIX = ".cas-tmp";
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long DEDUPLICATION_INTERVAL = TimeUnit.HOURS.toMillis(1);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path root;
+    private final Path objectsDir;
+    private final Path manifestsDir;
+    private final AtomicBoolean deduplicating = new AtomicBoolean();
+    /**
+     * Held for reading while a file is linked to an object, and for writing while an unreferenced
+     * object is removed.
+     */
+    private final ReadWriteLock objectLock = new ReentrantReadWriteLock();
+    private volatile long lastDeduplication;
+    private volatile DeployUnitLocks unitLocks;
+
+    public ContentStore(String rootDir) throws IOException {
+        this.root = Paths.get(rootDir).toAbsolutePath().normalize();
+        this.objectsDir = root.resolve(OBJECTS_DIR);
+        this.manifestsDir = root.resolve(MANIFESTS_DIR);
+        Files.createDirectories(objectsDir);
+        Files.createDirectories(manifestsDir);
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Skip deploy units that are being copied when deduplicating, as relinking their files could
+     * race the copy; they are deduplicated by a later pass.
+     */
+    void setUnitLocks(DeployUnitLocks unitLocks) {
+        this.unitLocks = unitLocks;
+    }
+
+    public Path getObjectPath(String key) {
+        return objectsDir.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    public boolean contains(String key) {
+        return Files.exists(getObjectPath(key));
+    }
+
+    /**
+     * Make sure the content of {@code file} is held in the store and that {@code file} is a hard
+     * link to the stored object.
+     *
+     * @return the object key of the file
+     */
+    public String store(Path file) throws IOException {
+        String key = objectKey(file);
+        Path object = getObjectPath(key);
+        objectLock.readLock().lock();
+        try {
+            if (!Files.exists(object)) {
+                Files.createDirectories(object.getParent());
+                try {
+                    Files.createLink(object, file);
+                    return key;
+                } catch (FileAlreadyExistsException e) {
+                    logger.debug("Object " + key + " was stored concurrently, linking to it...");
+                }
+            }
+            if (!Files.isSameFile(object, file)) {
+                replaceWithLink(object, file);
+            }
+            return key;
+        } finally {
+            objectLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Create (or replace) {@code target} as a hard link to a stored object.
+     *
+     * @return false if the object is not present in the store
+     */
+    public boolean link(String key, Path target) throws IOException {
+        Path object = getObjectPath(key);
+        objectLock.readLock().lock();
+        try {
+            if (!Files.exists(object)) {
+                return false;
+            }
+            if (Files.exists(target, LinkOption.NOFOLLOW_LINKS) && Files.isSameFile(object, target)) {
+                return true;
+            }
+            replaceWithLink(object, target);
+            return true;
+        } finally {
+            objectLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replace every file below {@code unitDir} by a link into the store and record the unit's
+     * manifest. Directory modification times are left untouched. Files reached through symbolic
+     * links are recorded with their hash but left in place, as they belong to another directory.
+     */
+    public Manifest deduplicate(Path unitDir) throws IOException {
+        final Path unitRoot = unitDir.toAbsolutePath().normalize();
+        final Manifest manifest = new Manifest(unitRoot.toString(), null);
+        final Deque<FileTime> dirTimes = new ArrayDeque<>();
+        final int[] linkedDepth = new int[1];
+
+        Files.walkFileTree(unitRoot, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (dir.equals(root)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                if (linkedDepth[0] > 0 || Files.isSymbolicLink(dir)) {
+                    linkedDepth[0]++;
+                } else {
+                    dirTimes.push(attrs.lastModifiedTime());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile()) {
+                    if (linkedDepth[0] > 0 || Files.isSymbolicLink(file)) {
+                        manifest.addEntry(new Manifest.Entry(relativePath(unitRoot, file), attrs.size(),
+                                attrs.lastModifiedTime().toMillis(), objectKey(file)));
+                        return FileVisitResult.CONTINUE;
+                    }
+                    String key = store(file);
+                    BasicFileAttributes linked = Files.readAttributes(file, BasicFileAttributes.class);
+                    manifest.addEntry(new Manifest.Entry(relativePath(unitRoot, file), linked.size(),
+                            linked.lastModifiedTime().toMillis(), key));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                if (linkedDepth[0] > 0) {
+                    linkedDepth[0]--;
+                } else {
+                    Files.setLastModifiedTime(dir, dirTimes.pop());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        manifest.setRootModified(Files.getLastModifiedTime(unitRoot).toMillis());
+        writeManifest(manifest);
+        return manifest;
+    }
+
+    /**
+     * Deduplicate every deploy unit directory directly below {@code baseDir}, skipping hidden
+     * directories and the store itself.
+     */
+    public void deduplicateAll(Path baseDir) throws IOException {
+        deduplicateAll(baseDir, DiscoveryOptions.CHILDREN);
+    }
+
+    /**
+     * Deduplicate the deploy units below {@code baseDir} that {@code options} discovers, never
+     * the store itself nor units in use.
+     */
+    public void deduplicateAll(Path baseDir, DiscoveryOptions options) throws IOException {
+        DeployUnitLocks locks = this.unitLocks;
+        for (Path unit : DeployUnitDiscovery.findUnits(baseDir, root, options)) {
+            if (locks != null && !locks.tryLockExclusive(unit)) {
+                logger.debug("Deploy unit " + unit + " is in use, deduplicating it later");
+                continue;
+            }
+            try {
+                Manifest manifest = readStoredManifest(unit);
+                if (manifest != null && ManifestCache.revalidate(unit, manifest) == manifest) {
+                    logger.debug("Deploy unit " + unit + " is already deduplicated");
+                    continue;
+                }
+                manifest = deduplicate(unit);
+                logger.debug("Deduplicated deploy unit " + unit + " (" + manifest.size() + " files)");
+            } finally {
+                if (locks != null) {
+                    locks.unlockExclusive(unit);
+                }
+            }
+        }
+    }
+
+    /**
+     * Run {@link #deduplicateAll(Path, DiscoveryOptions)} on a low priority background thread
+     * unless a pass is already running or has completed within the last hour.
+     */
+    public void deduplicateInBackground(final Path baseDir, final DiscoveryOptions options) {
+        if (System.currentTimeMillis() - lastDeduplication < DEDUPLICATION_INTERVAL
+                || !deduplicating.compareAndSet(false, true)) {
+            return;
+        }
+        WorkerPools.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    deduplicateAll(baseDir, options);
+                } catch (IOException e) {
+                    logger.warn("Unable to deduplicate " + baseDir + ": " + e.getLocalizedMessage());
+                } finally {
+                    lastDeduplication = System.currentTimeMillis();
+                    deduplicating.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the recorded manifest of {@code unitDir} with the files that changed since hashed
+     * again, or null if the unit has not been deduplicated or its root was modified since
+     */
+    public Manifest readManifest(Path unitDir) {
+        Manifest manifest = readStoredManifest(unitDir);
+        if (manifest == null) {
+            return null;
+        }
+        try {
+            return ManifestCache.revalidate(unitDir.toAbsolutePath().normalize(), manifest);
+        } catch (IOException e) {
+            logger.debug("Unable to check manifest of " + unitDir + ": " + e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    public void deleteManifest(Path unitDir) throws IOException {
+        Files.deleteIfExists(manifestPath(unitDir.toAbsolutePath().normalize()));
+    }
+
+    /**
+     * Remove every stored object that is no longer linked from any deploy unit. Objects are only
+     * removed while no file is being linked into the store, so that storing or linking never finds
+     * an object that is removed before its link is made.
+     *
+     * @return the number of objects removed and the number of bytes freed
+     */
+    public long[] collectGarbage() throws IOException {
+        final long[] freed = new long[2];
+        Files.walkFileTree(objectsDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile() && RetentionJob.linkCount(file) <= 1) {
+                    objectLock.writeLock().lock();
+                    try {
+                        // may have been linked again since it was counted
+                        if (RetentionJob.linkCount(file) <= 1 && Files.deleteIfExists(file)) {
+                            freed[0]++;
+                            freed[1] += attrs.size();
+                        }
+                    } finally {
+                        objectLock.writeLock().unlock();
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        logger.debug("Removed " + freed[0] + " unreferenced objects (" + freed[1] + " bytes) from content store " + root);
+        return freed;
+    }
+
+    public void writeManifest(Manifest manifest) throws IOException {
+        Path manifestFile = manifestPath(Paths.get(manifest.getRoot()));
+        Path tempFile = manifestFile.resolveSibling(manifestFile.getFileName() + TEMP_SUFFIX);
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            writer.write("#\t" + manifest.getRootModified() + "\t" + manifest.getRoot());
+            writer.newLine();
+            for (Manifest.Entry entry : manifest.getEntries()) {
+                writer.write(entry.getHash() + "\t" + entry.getSize() + "\t" + entry.getModified() + "\t" + entry.getPath());
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the SHA-256 content hash of {@code file} in lower case hex
+     */
+    public static String hash(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @return the path of {@code file} below {@code root}, always separated by '/'
+     */
+    public static String relativePath(Path root, Path file) {
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * @return the key under which the content of {@code file} is stored: its hash, followed by its
+     * octal permissions on POSIX file systems
+     */
+    static String objectKey(Path file) throws IOException {
+        String key = hash(file);
+        PosixFileAttributeView view = Files.getFileAttributeView(file, PosixFileAttributeView.class);
+        if (view != null) {
+            int mode = 0;
+            for (PosixFilePermission permission : view.readAttributes().permissions()) {
+                mode |= 1 << (8 - permission.ordinal());
+            }
+            key = key + "." + Integer.toOctalString(mode);
+        }
+        return key;
+    }
+
+    //================================================================================
+    // Private Methods
+    //================================================================================
+
+    /**
+     * @return the manifest recorded for {@code unitDir}, or null if there is none or the unit root
+     * was modified since
+     */
+    private Manifest readStoredManifest(Path unitDir) {
+        Path unitRoot = unitDir.toAbsolutePath().normalize();
+        Path manifestFile = manifestPath(unitRoot);
+        if (!Files.exists(manifestFile)) {
+            return null;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(manifestFile, StandardCharsets.UTF_8)) {
+            String[] header = reader.readLine().split("\t", 3);
+            Manifest manifest = new Manifest(header[2], Long.parseLong(header[1]));
+            if (!unitRoot.toString().equals(manifest.getRoot())
+                    || Files.getLastModifiedTime(unitRoot).toMillis() != manifest.getRootModified()) {
+                return null;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 4);
+                manifest.addEntry(new Manifest.Entry(fields[3], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[0]));
+            }
+            return manifest;
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Ignoring unreadable manifest " + manifestFile + ": " + e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    private Path manifestPath(Path unitRoot) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        String name = toHex(digest.digest(unitRoot.toString().getBytes(StandardCharsets.UTF_8)));
+        return manifestsDir.resolve(name + MANIFEST_SUFFIX);
+    }
+
+    private static void replaceWithLink(Path object, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path tempLink = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+        Files.deleteIfExists(tempLink);
+        Files.createLink(tempLink, object);
+        Files.move(tempLink, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+
+}
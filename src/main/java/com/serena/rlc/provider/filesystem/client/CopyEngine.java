@@ -0,0 +1,637 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+import com.serena.rlc.provider.filesystem.domain.CopyResult;
+import com.serena.rlc.provider.filesystem.domain.Manifest;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies one directory tree to another. Files are replaced rather than overwritten in place, so
+ * that hard links held by the content store are never written through. Symbolic links in the
+ * source are followed on every copy path, copying the content of linked files and directories; a
+ * link to one of its own ancestor directories fails the copy with a {@link FileSystemLoopException}.
+ *
+ * @author klee
+ */
+class CopyEngine {
+    private static final Logger logger = LoggerFactory.getLogger(CopyEngine.class);
+
+    private static final int FILE_BATCH_SIZE = 32;
+    /**
+     * Files up to this size are read in one call and written to a newly created file.
+     */
+    private static final int SMALL_FILE_SIZE = 64 * 1024;
+    private static final Set<StandardOpenOption> CREATE_NEW = EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+
+    private final Path source;
+    private Path destination;
+    private final CopyOptions options;
+    private final Manifest manifest;
+    private final ContentStore contentStore;
+    private final Progress progress;
+    private final CopyOption[] copyOptions;
+
+    private volatile boolean linkable;
+    private final AtomicLong filesCopied = new AtomicLong();
+    private final AtomicLong filesLinked = new AtomicLong();
+    private final AtomicLong filesUnchanged = new AtomicLong();
+    private final AtomicLong entriesDeleted = new AtomicLong();
+    private final AtomicLong bytesCopied = new AtomicLong();
+    private final AtomicLong syncNanos = new AtomicLong();
+    private final Queue<Path> unsyncedFiles = new ConcurrentLinkedQueue<>();
+    private final Queue<Path> unsyncedDirs = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param manifest     content store manifest of {@code source}, or null to copy every file
+     * @param contentStore store holding the objects of {@code manifest}
+     * @param progress     receives every processed source file
+     */
+    CopyEngine(Path source, Path destination, CopyOptions options, Manifest manifest, ContentStore contentStore, Progress progress) {
+        this.source = source;
+        this.destination = destination;
+        this.options = options;
+        this.manifest = manifest;
+        this.contentStore = contentStore;
+        this.progress = progress;
+        this.linkable = manifest != null && contentStore != null;
+        this.copyOptions = options.isPreserveDates()
+                ? new CopyOption[]{StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES}
+                : new CopyOption[]{StandardCopyOption.REPLACE_EXISTING};
+    }
+
+    CopyResult copy() throws IOException {
+        long start = System.currentTimeMillis();
+        if (Files.isSymbolicLink(destination)) {
+            // a destination such as current -> releases/v3 is copied into the directory it links to
+            destination = destination.toRealPath();
+        }
+        if (options.isMirror()) {
+            mirror();
+        } else if (!linkable && isEmptyOrMissing(destination)) {
+            copyFresh();
+        } else {
+            copyAll();
+        }
+        if (options.getDurability() != Durability.NONE) {
+            syncAtEnd();
+        }
+
+        CopyResult result = new CopyResult();
+        result.setFilesCopied(filesCopied.get());
+        result.setFilesLinked(filesLinked.get());
+        result.setFilesUnchanged(filesUnchanged.get());
+        result.setEntriesDeleted(entriesDeleted.get());
+        result.setBytesCopied(bytesCopied.get());
+        result.setElapsedMillis(System.currentTimeMillis() - start);
+        result.setSyncMillis(TimeUnit.NANOSECONDS.toMillis(syncNanos.get()));
+        logger.debug(result.getSummary());
+        return result;
+    }
+
+    //================================================================================
+    // Private Methods
+    //================================================================================
+
+    /**
+     * Copy every file of the source, leaving other destination files in place. The tree is walked
+     * on the calling thread while the files are transferred in parallel batches; directory times
+     * are set once all files have been written.
+     */
+    private void copyAll() throws IOException {
+        final List<Path> dirs = new ArrayList<>();
+        final ParallelBatches<Map.Entry<Path, BasicFileAttributes>> transfers = new ParallelBatches<>(FILE_BATCH_SIZE,
+                new ParallelBatches.Handler<Map.Entry<Path, BasicFileAttributes>>() {
+                    @Override
+                    public void handle(List<Map.Entry<Path, BasicFileAttributes>> batch) throws IOException {
+                        for (Map.Entry<Path, BasicFileAttributes> file : batch) {
+                            transferFile(file.getKey(), file.getValue(), destination.resolve(source.relativize(file.getKey())));
+                        }
+                    }
+                });
+
+        boolean completed = false;
+        try {
+            Files.walkFileTree(source, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    Path target = destination.resolve(source.relativize(dir));
+                    Files.createDirectories(target);
+                    touched(target);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    transfers.add(new AbstractMap.SimpleImmutableEntry<>(file, attrs));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    if (e != null) {
+                        throw e;
+                    }
+                    dirs.add(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            transfers.await();
+            completed = true;
+        } finally {
+            if (!completed) {
+                transfers.abort();
+            }
+        }
+
+        if (options.isPreserveDates()) {
+            // children were added before their parents
+            for (Path dir : dirs) {
+                Files.setLastModifiedTime(destination.resolve(source.relativize(dir)), Files.getLastModifiedTime(dir));
+            }
+        }
+    }
+
+    /**
+     * Copy into a destination that does not exist yet or is empty, where every target is known to
+     * be new. Copies of trees of many small files are dominated by metadata operations, so:
+     * <ul>
+     * <li>the source is listed and the whole destination skeleton created before any file</li>
+     * <li>files are copied directory by directory in inode order, batches never spanning
+     * directories</li>
+     * <li>small files are read in one call and written with {@code CREATE_NEW}, which creates them
+     * with the source permissions, less the umask like any other copy, without checking for, or
+     * replacing, an existing target</li>
+     * <li>when dates are preserved, the exact permissions and modification times are set per batch
+     * once its files are written, as {@code COPY_ATTRIBUTES} does for the other copy paths</li>
+     * </ul>
+     */
+    private void copyFresh() throws IOException {
+        boolean posix = source.getFileSystem().supportedFileAttributeViews().contains("posix");
+        List<DirectoryListing> listings = new ArrayList<>();
+        listTree(source, posix, null, listings);
+
+        Files.createDirectories(destination);
+        for (DirectoryListing listing : listings) {
+            Path target = destination.resolve(source.relativize(listing.dir));
+            if (!listing.dir.equals(source)) {
+                Files.createDirectory(target);
+            }
+            touched(target);
+        }
+
+        final ParallelBatches<Map.Entry<Path, BasicFileAttributes>> transfers = new ParallelBatches<>(FILE_BATCH_SIZE,
+                new ParallelBatches.Handler<Map.Entry<Path, BasicFileAttributes>>() {
+                    @Override
+                    public void handle(List<Map.Entry<Path, BasicFileAttributes>> batch) throws IOException {
+                        for (Map.Entry<Path, BasicFileAttributes> file : batch) {
+                            createFile(file.getKey(), file.getValue(), destination.resolve(source.relativize(file.getKey())));
+                        }
+                        if (options.isPreserveDates()) {
+                            for (Map.Entry<Path, BasicFileAttributes> file : batch) {
+                                copyAttributes(file.getValue(), destination.resolve(source.relativize(file.getKey())));
+                            }
+                        }
+                        for (Map.Entry<Path, BasicFileAttributes> file : batch) {
+                            written(destination.resolve(source.relativize(file.getKey())));
+                        }
+                    }
+                });
+
+        boolean completed = false;
+        try {
+            for (DirectoryListing listing : listings) {
+                for (Map.Entry<Path, BasicFileAttributes> file : listing.files) {
+                    transfers.add(file);
+                }
+                transfers.flush();
+            }
+            transfers.await();
+            completed = true;
+        } finally {
+            if (!completed) {
+                transfers.abort();
+            }
+        }
+
+        if (options.isPreserveDates()) {
+            // listings are in pre-order, so walk them backwards to set children before parents
+            for (int i = listings.size() - 1; i >= 0; i--) {
+                DirectoryListing listing = listings.get(i);
+                Files.setLastModifiedTime(destination.resolve(source.relativize(listing.dir)), listing.attrs.lastModifiedTime());
+            }
+        }
+    }
+
+    private void createFile(Path file, BasicFileAttributes attrs, Path target) throws IOException {
+        if (!attrs.isRegularFile() || attrs.size() > SMALL_FILE_SIZE) {
+            Object event = FilesystemEvents.beginFileCopy();
+            Files.copy(file, target);
+            FilesystemEvents.endFileCopy(event, file, target, attrs.size());
+        } else {
+            byte[] content = Files.readAllBytes(file);
+            FileAttribute<?>[] fileAttributes = attrs instanceof PosixFileAttributes
+                    ? new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(((PosixFileAttributes) attrs).permissions())}
+                    : new FileAttribute<?>[0];
+            try (SeekableByteChannel out = Files.newByteChannel(target, CREATE_NEW, fileAttributes)) {
+                ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+        }
+        filesCopied.incrementAndGet();
+        bytesCopied.addAndGet(attrs.size());
+        progress.add(1, attrs.size());
+    }
+
+    /**
+     * Set the permissions and modification time of {@code attrs} on {@code target}, like
+     * {@link StandardCopyOption#COPY_ATTRIBUTES}.
+     */
+    private static void copyAttributes(BasicFileAttributes attrs, Path target) throws IOException {
+        if (attrs instanceof PosixFileAttributes) {
+            Files.setPosixFilePermissions(target, ((PosixFileAttributes) attrs).permissions());
+        }
+        Files.setLastModifiedTime(target, attrs.lastModifiedTime());
+    }
+
+    /**
+     * List {@code dir} and its subdirectories in pre-order, each with its files in inode order.
+     *
+     * @param parent chain of the directories above {@code dir}, or null for the source itself
+     */
+    private static void listTree(Path dir, boolean posix, DirectoryChain parent, List<DirectoryListing> listings) throws IOException {
+        DirectoryListing listing = new DirectoryListing(dir, readAttributes(dir, posix));
+        DirectoryChain chain = DirectoryChain.enter(parent, dir, listing.attrs);
+        listings.add(listing);
+        List<Path> subdirs = new ArrayList<>();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+            for (Path child : children) {
+                BasicFileAttributes attrs = readAttributes(child, posix);
+                if (attrs.isDirectory()) {
+                    subdirs.add(child);
+                } else {
+                    listing.files.add(new AbstractMap.SimpleImmutableEntry<>(child, attrs));
+                }
+            }
+        }
+        Collections.sort(listing.files, new Comparator<Map.Entry<Path, BasicFileAttributes>>() {
+            @Override
+            public int compare(Map.Entry<Path, BasicFileAttributes> a, Map.Entry<Path, BasicFileAttributes> b) {
+                return Long.compare(inode(a.getValue()), inode(b.getValue()));
+            }
+        });
+        for (Path subdir : subdirs) {
+            listTree(subdir, posix, chain, listings);
+        }
+    }
+
+    private static BasicFileAttributes readAttributes(Path path, boolean posix) throws IOException {
+        return posix
+                ? Files.readAttributes(path, PosixFileAttributes.class)
+                : Files.readAttributes(path, BasicFileAttributes.class);
+    }
+
+    /**
+     * @return the inode number from the file key, e.g. {@code (dev=803,ino=1234)} on Unix, or 0 if
+     * the file system has none
+     */
+    static long inode(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        if (key == null) {
+            return 0;
+        }
+        String text = key.toString();
+        int start = text.indexOf("ino=");
+        if (start < 0) {
+            return 0;
+        }
+        long inode = 0;
+        for (int i = start + 4; i < text.length() && Character.isDigit(text.charAt(i)); i++) {
+            inode = inode * 10 + (text.charAt(i) - '0');
+        }
+        return inode;
+    }
+
+    private static boolean isEmptyOrMissing(Path dir) throws IOException {
+        if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+            return true;
+        }
+        if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+            return false;
+        }
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+            return !children.iterator().hasNext();
+        }
+    }
+
+    /**
+     * Diff source and destination directory by directory in parallel, transferring new and changed
+     * files and deleting destination entries that no longer exist in the source.
+     */
+    private void mirror() throws IOException {
+        try {
+            WorkerPools.io().invoke(new MirrorTask(source, destination, null));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void transferFile(Path file, BasicFileAttributes attrs, Path target) throws IOException {
+        if (linkable) {
+            Manifest.Entry entry = manifest.getEntry(ContentStore.relativePath(source, file));
+            if (entry != null && entry.getSize() == attrs.size()
+                    && entry.getModified() == attrs.lastModifiedTime().toMillis()) {
+                try {
+                    if (contentStore.link(entry.getHash(), target)) {
+                        written(target);
+                        filesLinked.incrementAndGet();
+                        progress.add(1, attrs.size());
+                        return;
+                    }
+                } catch (FileSystemException e) {
+                    logger.debug("Unable to link " + target + " into the content store, copying remaining files: " + e.getLocalizedMessage());
+                    linkable = false;
+                }
+            }
+        }
+        Object event = FilesystemEvents.beginFileCopy();
+        Files.copy(file, target, copyOptions);
+        FilesystemEvents.endFileCopy(event, file, target, attrs.size());
+        written(target);
+        filesCopied.incrementAndGet();
+        bytesCopied.addAndGet(attrs.size());
+        progress.add(1, attrs.size());
+    }
+
+    /**
+     * Sync {@code target} now or remember it for the end of the copy, depending on the durability.
+     */
+    private void written(Path target) throws IOException {
+        switch (options.getDurability()) {
+            case PER_FILE:
+                long start = System.nanoTime();
+                force(target, false);
+                syncNanos.addAndGet(System.nanoTime() - start);
+                break;
+            case END:
+                unsyncedFiles.add(target);
+                break;
+            default:
+        }
+    }
+
+    /**
+     * Remember a destination directory whose entries were created or removed, to sync it at the
+     * end of a durable copy.
+     */
+    private void touched(Path targetDir) {
+        if (options.getDurability() != Durability.NONE) {
+            unsyncedDirs.add(targetDir);
+        }
+    }
+
+    /**
+     * Sync the files remembered for the end of the copy, then every touched directory, including
+     * the parent holding the destination itself, in parallel batches.
+     */
+    private void syncAtEnd() throws IOException {
+        long start = System.nanoTime();
+        Path parent = destination.toAbsolutePath().getParent();
+        if (parent != null) {
+            unsyncedDirs.add(parent);
+        }
+        forceAll(unsyncedFiles, false);
+        forceAll(unsyncedDirs, true);
+        syncNanos.addAndGet(System.nanoTime() - start);
+        logger.debug("Synced " + destination + " (" + options.getDurability() + ") in " + TimeUnit.NANOSECONDS.toMillis(syncNanos.get()) + " ms");
+    }
+
+    private static void forceAll(Queue<Path> paths, final boolean directories) throws IOException {
+        ParallelBatches<Path> syncs = new ParallelBatches<>(FILE_BATCH_SIZE, new ParallelBatches.Handler<Path>() {
+            @Override
+            public void handle(List<Path> batch) throws IOException {
+                for (Path path : batch) {
+                    force(path, directories);
+                }
+            }
+        });
+        boolean completed = false;
+        try {
+            for (Path path = paths.poll(); path != null; path = paths.poll()) {
+                syncs.add(path);
+            }
+            syncs.await();
+            completed = true;
+        } finally {
+            if (!completed) {
+                syncs.abort();
+            }
+        }
+    }
+
+    /**
+     * Force the content and metadata of {@code path} to stable storage. Files are opened for
+     * writing, without truncating them, because Windows only flushes handles with write access;
+     * POSIX systems also sync read-only handles, which read-only copies fall back to. Directories
+     * can only be opened, read only, on POSIX systems and are otherwise left to the file system.
+     */
+    private static void force(Path path, boolean directory) throws IOException {
+        boolean posix = path.getFileSystem().supportedFileAttributeViews().contains("posix");
+        if (directory) {
+            if (!posix) {
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException e) {
+                logger.debug("Unable to sync directory " + path + ": " + e.getLocalizedMessage());
+            }
+            return;
+        }
+        try (FileChannel channel = openFileForSync(path, posix)) {
+            channel.force(true);
+        }
+    }
+
+    private static FileChannel openFileForSync(Path file, boolean posix) throws IOException {
+        try {
+            return FileChannel.open(file, StandardOpenOption.WRITE);
+        } catch (AccessDeniedException e) {
+            if (!posix) {
+                throw e;
+            }
+            return FileChannel.open(file, StandardOpenOption.READ);
+        }
+    }
+
+    private boolean isChanged(Path file, BasicFileAttributes attrs, Path target, BasicFileAttributes targetAttrs) throws IOException {
+        if (attrs.size() != targetAttrs.size()) {
+            return true;
+        }
+        if (options.isPreserveDates()) {
+            return attrs.lastModifiedTime().toMillis() != targetAttrs.lastModifiedTime().toMillis();
+        }
+        // without preserved dates modification times say nothing about the content
+        return !FileUtils.contentEquals(file.toFile(), target.toFile());
+    }
+
+    private void deleteEntry(Path target, BasicFileAttributes attrs) throws IOException {
+        if (attrs.isDirectory()) {
+            Object event = FilesystemEvents.beginDeleteBatch();
+            final long[] deleted = new long[2];
+            Files.walkFileTree(target, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    entriesDeleted.incrementAndGet();
+                    deleted[0]++;
+                    deleted[1] += attrs.size();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    if (e != null) {
+                        throw e;
+                    }
+                    Files.delete(dir);
+                    entriesDeleted.incrementAndGet();
+                    deleted[0]++;
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            FilesystemEvents.endDeleteBatch(event, target, deleted[0], deleted[1]);
+        } else {
+            Files.delete(target);
+            entriesDeleted.incrementAndGet();
+        }
+    }
+
+    private static Map<String, BasicFileAttributes> listEntries(Path dir, LinkOption... linkOptions) throws IOException {
+        Map<String, BasicFileAttributes> entries = new HashMap<>();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+            for (Path child : children) {
+                entries.put(child.getFileName().toString(), Files.readAttributes(child, BasicFileAttributes.class, linkOptions));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * A directory and its non-directory entries.
+     */
+    private static class DirectoryListing {
+
+        private final Path dir;
+        private final BasicFileAttributes attrs;
+        private final List<Map.Entry<Path, BasicFileAttributes>> files = new ArrayList<>();
+
+        DirectoryListing(Path dir, BasicFileAttributes attrs) {
+            this.dir = dir;
+            this.attrs = attrs;
+        }
+    }
+
+    /**
+     * Mirrors a single directory and forks one subtask per subdirectory.
+     */
+    private class MirrorTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path sourceDir;
+        private final Path targetDir;
+        private final DirectoryChain parent;
+
+        MirrorTask(Path sourceDir, Path targetDir, DirectoryChain parent) {
+            this.sourceDir = sourceDir;
+            this.targetDir = targetDir;
+            this.parent = parent;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                List<MirrorTask> subtasks = mirrorDirectory();
+                invokeAll(subtasks);
+                if (options.isPreserveDates()) {
+                    Files.setLastModifiedTime(targetDir, Files.getLastModifiedTime(sourceDir));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private List<MirrorTask> mirrorDirectory() throws IOException {
+            DirectoryChain chain = DirectoryChain.enter(parent, sourceDir, Files.readAttributes(sourceDir, BasicFileAttributes.class));
+            Map<String, BasicFileAttributes> targetEntries;
+            touched(targetDir);
+            if (Files.isDirectory(targetDir, LinkOption.NOFOLLOW_LINKS)) {
+                targetEntries = listEntries(targetDir, LinkOption.NOFOLLOW_LINKS);
+            } else {
+                Files.createDirectories(targetDir);
+                targetEntries = new HashMap<>();
+            }
+
+            List<MirrorTask> subtasks = new ArrayList<>();
+            for (Map.Entry<String, BasicFileAttributes> entry : listEntries(sourceDir).entrySet()) {
+                String name = entry.getKey();
+                BasicFileAttributes attrs = entry.getValue();
+                Path file = sourceDir.resolve(name);
+                Path target = targetDir.resolve(name);
+                BasicFileAttributes targetAttrs = targetEntries.remove(name);
+
+                if (attrs.isDirectory()) {
+                    if (targetAttrs != null && !targetAttrs.isDirectory()) {
+                        deleteEntry(target, targetAttrs);
+                    }
+                    subtasks.add(new MirrorTask(file, target, chain));
+                    continue;
+                }
+
+                if (targetAttrs != null && !targetAttrs.isRegularFile()) {
+                    deleteEntry(target, targetAttrs);
+                    targetAttrs = null;
+                }
+                if (targetAttrs == null || isChanged(file, attrs, target, targetAttrs)) {
+                    transferFile(file, attrs, target);
+                } else {
+                    filesUnchanged.incrementAndGet();
+                    progress.add(1, attrs.size());
+                }
+            }
+
+            for (Map.Entry<String, BasicFileAttributes> extraneous : targetEntries.entrySet()) {
+                deleteEntry(targetDir.resolve(extraneous.getKey()), extraneous.getValue());
+            }
+            return subtasks;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+/**
+ * Options of {@link FilesystemClient#localCopy(String, String, CopyOptions)}.
+ *
+ * @author klee
+ */
+public class CopyOptions {
+
+    private boolean preserveDates = true;
+    private boolean linkFromStore = false;
+    private boolean mirror = false;
+    private boolean snapshot = false;
+    private int snapshotLimit = 3;
+    private Durability durability = Durability.NONE;
+    private TransferSettings transferSettings;
+
+    public CopyOptions() {
+
+    }
+
+    public CopyOptions(boolean preserveDates) {
+        this.preserveDates = preserveDates;
+    }
+
+    public boolean isPreserveDates() {
+        return preserveDates;
+    }
+
+    public void setPreserveDates(boolean preserveDates) {
+        this.preserveDates = preserveDates;
+    }
+
+    /**
+     * Hard link files recorded in the content store manifest of the source instead of copying them.
+     */
+    public boolean isLinkFromStore() {
+        return linkFromStore;
+    }
+
+    public void setLinkFromStore(boolean linkFromStore) {
+        this.linkFromStore = linkFromStore;
+    }
+
+    /**
+     * Make the destination an exact copy of the source: only changed files are copied and files
+     * that do not exist in the source are deleted.
+     */
+    public boolean isMirror() {
+        return mirror;
+    }
+
+    public void setMirror(boolean mirror) {
+        this.mirror = mirror;
+    }
+
+    /**
+     * Take a hard-linked snapshot of the destination before copying, so that the copy can be rolled
+     * back with {@link FilesystemClient#rollbackDir(String)}.
+     */
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(boolean snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Number of snapshots of the destination to keep after a successful copy.
+     */
+    public int getSnapshotLimit() {
+        return snapshotLimit;
+    }
+
+    public void setSnapshotLimit(int snapshotLimit) {
+        this.snapshotLimit = snapshotLimit;
+    }
+
+    /**
+     * When the copied files and directories are synced to stable storage.
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public void setDurability(Durability durability) {
+        this.durability = durability != null ? durability : Durability.NONE;
+    }
+
+    /**
+     * Connection settings for destinations that are copied to by a {@link TransferBackend}.
+     */
+    public TransferSettings getTransferSettings() {
+        return transferSettings;
+    }
+
+    public void setTransferSettings(TransferSettings transferSettings) {
+        this.transferSettings = transferSettings;
+    }
+
+    @Override
+    public String toString() {
+        return "preserveDates=" + preserveDates + ", linkFromStore=" + linkFromStore + ", mirror=" + mirror
+                + ", snapshot=" + snapshot + (snapshot ? " (keep " + snapshotLimit + ")" : "") + ", durability=" + durability;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Capacity check of a copy destination: the usable space of its file store, and on systems with
+ * {@code df} the free inodes, must cover what the copy will write plus a small reserve for
+ * directories and metadata. Java has no portable inode count, so {@code df -Pi} is run at most
+ * once per file store every {@link #INODE_CACHE_MILLIS} ms; where it is unavailable or reports no
+ * inode limit (e.g. btrfs), only the space is checked.
+ *
+ * @author klee
+ */
+final class CopyPreflight {
+    private static final Logger logger = LoggerFactory.getLogger(CopyPreflight.class);
+
+    static final long INODE_CACHE_MILLIS = 10000;
+    private static final long RESERVE_BYTES = 16L * 1024 * 1024;
+    private static final long RESERVE_INODES = 64;
+    private static final long DF_TIMEOUT_MILLIS = 2000;
+
+    private static final ConcurrentMap<FileStore, long[]> freeInodes = new ConcurrentHashMap<>();
+
+    private CopyPreflight() {
+
+    }
+
+    /**
+     * @param destination   the copy destination, which need not exist yet
+     * @param requiredFiles number of files the copy will create
+     * @param requiredBytes number of bytes the copy will write
+     * @return a one line description of the check
+     * @throws IOException if the destination volume is too small, with the reason as its message
+     */
+    static String check(Path destination, long requiredFiles, long requiredBytes) throws IOException {
+        Path existing = destination.toAbsolutePath().normalize();
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        if (existing == null) {
+            throw new IOException("No existing parent directory of " + destination);
+        }
+        FileStore store = Files.getFileStore(existing);
+
+        long neededBytes = requiredBytes + requiredBytes / 100 + RESERVE_BYTES;
+        long usable = store.getUsableSpace();
+        if (usable < neededBytes) {
+            throw new IOException("Not enough space on " + store + " for " + destination + ": the copy needs "
+                    + megabytes(neededBytes) + " MB, " + megabytes(usable) + " MB are available");
+        }
+
+        long inodes = freeInodes(store, existing);
+        long neededInodes = requiredFiles + requiredFiles / 100 + RESERVE_INODES;
+        if (inodes >= 0 && inodes < neededInodes) {
+            throw new IOException("Not enough inodes on " + store + " for " + destination + ": the copy creates about "
+                    + neededInodes + " files, " + inodes + " inodes are free");
+        }
+        return "needs " + megabytes(neededBytes) + " MB of " + megabytes(usable) + " MB"
+                + (inodes >= 0 ? " and " + neededInodes + " of " + inodes + " inodes" : "") + " available on " + store;
+    }
+
+    //================================================================================
+    // Private Methods
+    //================================================================================
+
+    private static long megabytes(long bytes) {
+        return (bytes + 1024 * 1024 - 1) / (1024 * 1024);
+    }
+
+    /**
+     * @return the free inodes of {@code store}, or -1 if they are unknown or unlimited
+     */
+    private static long freeInodes(FileStore store, Path dir) {
+        long now = System.currentTimeMillis();
+        long[] cached = freeInodes.get(store);
+        if (cached != null && now - cached[1] < INODE_CACHE_MILLIS) {
+            return cached[0];
+        }
+        long inodes = readFreeInodes(dir);
+        freeInodes.put(store, new long[]{inodes, now});
+        return inodes;
+    }
+
+    private static long readFreeInodes(Path dir) {
+        if (System.getProperty("os.name", "").toLowerCase().startsWith("windows")) {
+            return -1;
+        }
+        Process process = null;
+        try {
+            process = new ProcessBuilder("df", "-Pi", dir.toString()).redirectErrorStream(true).start();
+            String header;
+            String line;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                header = reader.readLine();
+                line = reader.readLine();
+            }
+            if (!process.waitFor(DF_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS) || process.exitValue() != 0 || header == null || line == null) {
+                return -1;
+            }
+            // Filesystem Inodes IUsed IFree IUse% Mounted on; the file system name may contain spaces
+            String[] columns = line.trim().split("\\s+");
+            int mounted = columns.length - 1;
+            while (mounted > 0 && !columns[mounted].endsWith("%")) {
+                mounted--;
+            }
+            if (mounted < 3) {
+                return -1;
+            }
+            long total = Long.parseLong(columns[mounted - 3]);
+            return total > 0 ? Long.parseLong(columns[mounted - 1]) : -1;
+        } catch (IOException | NumberFormatException e) {
+            logger.debug("Unable to read free inodes of " + dir + ": " + e.getLocalizedMessage());
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        } finally {
+            if (process != null) {
+                process.destroy();
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+import com.serena.rlc.provider.filesystem.domain.Directory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parallel walk of a base directory for deploy units, as described by {@link DiscoveryOptions}.
+ * Every subtree that may hold units is listed by its own task on the io pool, and units are handed
+ * to the visitor as soon as they are found, from whichever worker found them. Unit names are their
+ * paths relative to the base directory, separated by {@code /}. Hidden directories, such as the
+ * {@code .<name>.snapshots} directories of rollback snapshots, and directories that disappear or
+ * cannot be read while walking are skipped; symbolic links to directories can be units but are
+ * not descended into.
+ * <p>
+ * The walk can also record the modification times of the directories whose changes may add or
+ * remove units, which {@link DeployUnitIndex} checks to update its units incrementally.
+ *
+ * @author klee
+ */
+final class DeployUnitDiscovery {
+    private static final Logger logger = LoggerFactory.getLogger(DeployUnitDiscovery.class);
+
+    /**
+     * What a directory entry is to the walk.
+     */
+    enum Kind {
+        /** not a directory, or excluded */
+        NONE,
+        /** a deploy unit */
+        UNIT,
+        /** a directory that is walked for units */
+        BRANCH,
+        /** a directory at the maximum depth that becomes a unit once its marker file appears */
+        CANDIDATE
+    }
+
+    private final Path base;
+    private final Path excluded;
+    private final DiscoveryOptions options;
+    private final String nameFilter;
+    private final FilesystemClient.DirectoryVisitor visitor;
+    private final LongAdder entriesScanned = new LongAdder();
+    private ConcurrentMap<Path, FileTime> watched;
+
+    /**
+     * @param excluded   directory below {@code base} that is never a unit nor walked, or null
+     * @param nameFilter text that unit names must contain, or null for all units
+     */
+    DeployUnitDiscovery(Path base, Path excluded, DiscoveryOptions options, String nameFilter, FilesystemClient.DirectoryVisitor visitor) {
+        this.base = base;
+        this.excluded = excluded;
+        this.options = options;
+        this.nameFilter = nameFilter != null && !nameFilter.isEmpty() ? nameFilter : null;
+        this.visitor = visitor;
+    }
+
+    /**
+     * Walk the base directory, calling the visitor for every unit found.
+     *
+     * @return the number of entries scanned
+     * @throws IOException if the base directory itself cannot be read
+     */
+    long run() throws IOException {
+        if (!Files.isDirectory(base)) {
+            throw new NotDirectoryException(base.toString());
+        }
+        watch(base);
+        List<Path> children = list(base);
+        WorkerPools.io().invoke(new WalkTask(base, 0, children));
+        return entriesScanned.sum();
+    }
+
+    /**
+     * @param excluded directory below {@code base} that is never a unit nor walked, or null
+     * @return the deploy units below {@code base}, in no particular order
+     * @throws IOException if the base directory itself cannot be read
+     */
+    static List<Path> findUnits(final Path base, Path excluded, DiscoveryOptions options) throws IOException {
+        final List<Path> units = new ArrayList<>();
+        new DeployUnitDiscovery(base, excluded, options, null, new FilesystemClient.DirectoryVisitor() {
+            @Override
+            public void found(Directory directory) {
+                synchronized (units) {
+                    units.add(base.resolve(directory.getName()));
+                }
+            }
+        }).run();
+        return units;
+    }
+
+    /**
+     * Walk the branch {@code dir}, which is {@code depth} levels below the base directory.
+     */
+    void walk(Path dir, int depth) {
+        WorkerPools.io().invoke(new WalkTask(dir, depth, null));
+    }
+
+    /**
+     * Record the modification times of the directories walked from now on in {@code watched}.
+     */
+    void setWatched(ConcurrentMap<Path, FileTime> watched) {
+        this.watched = watched;
+    }
+
+    Path getBase() {
+        return base;
+    }
+
+    DiscoveryOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * @param depth levels of {@code entry} below the base directory
+     */
+    Kind classify(Path entry, int depth) {
+        if (entry.getFileName().toString().startsWith(".")
+                || excluded != null && excluded.equals(entry.toAbsolutePath().normalize())) {
+            return Kind.NONE;
+        }
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return Kind.NONE;
+        }
+        boolean link = attrs.isSymbolicLink();
+        if (!attrs.isDirectory() && !(link && Files.isDirectory(entry))) {
+            return Kind.NONE;
+        }
+        if (isUnit(entry, depth)) {
+            return Kind.UNIT;
+        }
+        if (!link && depth < options.getMaxDepth()) {
+            return Kind.BRANCH;
+        }
+        return options.getMarkerFile() != null ? Kind.CANDIDATE : Kind.NONE;
+    }
+
+    /**
+     * Record the current modification time of {@code dir}, if directories are watched.
+     */
+    void watch(Path dir) {
+        if (watched != null) {
+            try {
+                watched.put(dir, Files.getLastModifiedTime(dir));
+            } catch (IOException e) {
+                watched.remove(dir);
+            }
+        }
+    }
+
+    List<Path> list(Path dir) throws IOException {
+        List<Path> children = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path child : entries) {
+                children.add(child);
+            }
+        }
+        entriesScanned.add(children.size());
+        return children;
+    }
+
+    void found(Path dir) {
+        String name = ContentStore.relativePath(base, dir);
+        if (nameFilter == null || name.contains(nameFilter)) {
+            visitor.found(new Directory(name, name, dir.toAbsolutePath().toString()));
+        }
+    }
+
+    //================================================================================
+    // Private Methods
+    //================================================================================
+
+    private boolean isUnit(Path dir, int depth) {
+        if (options.isByDepth()) {
+            return depth == options.getMaxDepth();
+        }
+        if (options.getNamePattern() != null && !options.getNamePattern().matcher(dir.getFileName().toString()).matches()) {
+            return false;
+        }
+        return options.getMarkerFile() == null || Files.exists(dir.resolve(options.getMarkerFile()));
+    }
+
+    private class WalkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final int depth;
+        private List<Path> children;
+
+        WalkTask(Path dir, int depth, List<Path> children) {
+            this.dir = dir;
+            this.depth = depth;
+            this.children = children;
+        }
+
+        @Override
+        protected void compute() {
+            if (children == null) {
+                watch(dir);
+                try {
+                    children = list(dir);
+                } catch (IOException e) {
+                    logger.debug("Skipping unreadable directory " + dir + ": " + e.getLocalizedMessage());
+                    return;
+                }
+            }
+            List<WalkTask> subtasks = new ArrayList<>();
+            for (Path child : children) {
+                switch (classify(child, depth + 1)) {
+                    case UNIT:
+                        found(child);
+                        break;
+                    case BRANCH:
+                        WalkTask subtask = new WalkTask(child, depth + 1, null);
+                        subtask.fork();
+                        subtasks.add(subtask);
+                        break;
+                    case CANDIDATE:
+                        watch(child);
+                        break;
+                    default:
+                }
+            }
+            for (WalkTask subtask : subtasks) {
+                subtask.join();
+            }
+        }
+    }
+}
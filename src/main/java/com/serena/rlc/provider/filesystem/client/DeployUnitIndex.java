@@ -0,0 +1,264 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+import com.serena.rlc.provider.filesystem.domain.Directory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The deploy units of a base directory, kept in natural version order (see
+ * {@link VersionComparator}) so that listings and "latest" queries need no sort.
+ * <p>
+ * The index is built by one discovery walk, which also records the modification time of every
+ * directory whose entries decide which units exist. Before each query those times are checked;
+ * only the directories that changed are listed again, and new branches below them are walked.
+ * File systems with coarse timestamps, such as SMB shares, can change a directory again within the
+ * same timestamp it was listed at, so a directory modified within {@link #TIMESTAMP_GRANULARITY_MILLIS}
+ * of the refresh that listed it counts as changed until a later listing sees it settled.
+ * Units are not watched themselves: a unit whose marker file is deleted is only dropped once its
+ * parent directory changes.
+ *
+ * @author klee
+ */
+final class DeployUnitIndex {
+    private static final Logger logger = LoggerFactory.getLogger(DeployUnitIndex.class);
+
+    /**
+     * Coarsest modification time resolution expected of a base directory, that of FAT and of some
+     * SMB servers; it also absorbs small clock differences between a file server and this host.
+     */
+    static final long TIMESTAMP_GRANULARITY_MILLIS = 2000;
+
+    private final DeployUnitDiscovery discovery;
+    // newest first; descending iteration of a skip list is several times slower than reversing a copy
+    private final ConcurrentSkipListMap<String, Directory> units = new ConcurrentSkipListMap<>(Collections.reverseOrder(VersionComparator.INSTANCE));
+    private final ConcurrentMap<Path, FileTime> watched = new ConcurrentHashMap<>();
+    private boolean built;
+    // start of the last refresh, before which every directory recorded by it was listed
+    private long refreshedMillis;
+
+    DeployUnitIndex(Path base, Path excluded, DiscoveryOptions options) {
+        this.discovery = new DeployUnitDiscovery(base, excluded, options, null, new FilesystemClient.DirectoryVisitor() {
+            @Override
+            public void found(Directory directory) {
+                units.put(directory.getName(), directory);
+            }
+        });
+        this.discovery.setWatched(watched);
+    }
+
+    /**
+     * Bring the index up to date with the base directory.
+     *
+     * @throws IOException if the base directory cannot be read
+     */
+    synchronized void refresh() throws IOException {
+        long start = System.currentTimeMillis();
+        long settled = refreshedMillis - TIMESTAMP_GRANULARITY_MILLIS;
+        if (!built) {
+            discovery.run();
+            built = true;
+            refreshedMillis = start;
+            logger.debug("Indexed " + units.size() + " deploy units of " + discovery.getBase() + " in " + (System.currentTimeMillis() - start) + " ms");
+            return;
+        }
+
+        List<Path> changed = new ArrayList<>();
+        for (Map.Entry<Path, FileTime> entry : watched.entrySet()) {
+            // a directory modified close to its listing may have changed again in the same timestamp
+            if (entry.getValue().toMillis() > settled || !entry.getValue().equals(lastModified(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        if (changed.isEmpty()) {
+            refreshedMillis = start;
+            return;
+        }
+        if (!Files.isDirectory(discovery.getBase())) {
+            throw new IOException("Base directory " + discovery.getBase() + " no longer exists");
+        }
+        // parents first, so that branches removed with their parent are not listed
+        Collections.sort(changed, new Comparator<Path>() {
+            @Override
+            public int compare(Path a, Path b) {
+                return Integer.compare(a.getNameCount(), b.getNameCount());
+            }
+        });
+        int before = units.size();
+        for (Path dir : changed) {
+            if (watched.containsKey(dir)) {
+                update(dir);
+            }
+        }
+        refreshedMillis = start;
+        logger.debug("Updated deploy unit index of " + discovery.getBase() + " from " + changed.size() + " changed directories: "
+                + before + " -> " + units.size() + " units");
+    }
+
+    /**
+     * @param nameFilter      text that unit names must contain, or null for all units
+     * @param newestFirst     true to list the newest versions first
+     * @param latestPerPrefix number of newest versions to list of each component, 0 for all; the
+     *                        versions of a component share their parent directory and the part of
+     *                        their name before the first digit
+     */
+    List<Directory> list(String nameFilter, boolean newestFirst, int latestPerPrefix) {
+        List<Directory> result = new ArrayList<>();
+        Map<String, Integer> counts = latestPerPrefix > 0 ? new HashMap<String, Integer>() : null;
+        for (Directory unit : units.values()) {
+            if (nameFilter != null && !nameFilter.isEmpty() && !unit.getName().contains(nameFilter)) {
+                continue;
+            }
+            if (counts != null) {
+                String prefix = prefixOf(unit.getName());
+                Integer count = counts.get(prefix);
+                if (count != null && count >= latestPerPrefix) {
+                    continue;
+                }
+                counts.put(prefix, count == null ? 1 : count + 1);
+            }
+            result.add(unit);
+        }
+        if (!newestFirst) {
+            Collections.reverse(result);
+        }
+        return result;
+    }
+
+    int size() {
+        return units.size();
+    }
+
+    //================================================================================
+    // Private Methods
+    //================================================================================
+
+    /**
+     * Bring the units in or below the changed directory {@code dir} up to date.
+     */
+    private void update(Path dir) {
+        int depth = dir.equals(discovery.getBase()) ? 0 : discovery.getBase().relativize(dir).getNameCount();
+        if (depth > 0) {
+            switch (discovery.classify(dir, depth)) {
+                case UNIT:
+                    // the marker file of a branch or candidate appeared
+                    removeTree(dir);
+                    discovery.found(dir);
+                    return;
+                case CANDIDATE:
+                    discovery.watch(dir);
+                    return;
+                case NONE:
+                    removeTree(dir);
+                    return;
+                default:
+            }
+        }
+
+        discovery.watch(dir);
+        List<Path> children;
+        try {
+            children = discovery.list(dir);
+        } catch (IOException e) {
+            logger.debug("Unable to list changed directory " + dir + ": " + e.getLocalizedMessage());
+            return;
+        }
+        Set<String> present = new HashSet<>();
+        for (Path child : children) {
+            String name = ContentStore.relativePath(discovery.getBase(), child);
+            switch (discovery.classify(child, depth + 1)) {
+                case UNIT:
+                    present.add(name);
+                    if (!units.containsKey(name)) {
+                        removeTree(child);
+                        discovery.found(child);
+                    }
+                    break;
+                case BRANCH:
+                    present.add(name);
+                    if (!watched.containsKey(child)) {
+                        units.remove(name);
+                        discovery.walk(child, depth + 1);
+                    }
+                    break;
+                case CANDIDATE:
+                    present.add(name);
+                    units.remove(name);
+                    if (!watched.containsKey(child)) {
+                        discovery.watch(child);
+                    }
+                    break;
+                default:
+            }
+        }
+
+        // entries of dir that are gone, or are no longer units or branches
+        String parent = dir.equals(discovery.getBase()) ? "" : ContentStore.relativePath(discovery.getBase(), dir) + "/";
+        Iterator<String> names = units.keySet().iterator();
+        while (names.hasNext()) {
+            String name = names.next();
+            if (name.startsWith(parent) && name.indexOf('/', parent.length()) < 0 && !present.contains(name)) {
+                names.remove();
+            }
+        }
+        List<Path> gone = new ArrayList<>();
+        for (Path watchedDir : watched.keySet()) {
+            if (dir.equals(watchedDir.getParent()) && !present.contains(ContentStore.relativePath(discovery.getBase(), watchedDir))) {
+                gone.add(watchedDir);
+            }
+        }
+        for (Path goneDir : gone) {
+            removeTree(goneDir);
+        }
+    }
+
+    /**
+     * Forget the units and watched directories in or below {@code dir}.
+     */
+    private void removeTree(Path dir) {
+        String name = ContentStore.relativePath(discovery.getBase(), dir);
+        Iterator<String> names = units.keySet().iterator();
+        while (names.hasNext()) {
+            String unit = names.next();
+            if (unit.equals(name) || unit.startsWith(name + "/")) {
+                names.remove();
+            }
+        }
+        Iterator<Path> dirs = watched.keySet().iterator();
+        while (dirs.hasNext()) {
+            if (dirs.next().startsWith(dir)) {
+                dirs.remove();
+            }
+        }
+    }
+
+    private static FileTime lastModified(Path dir) {
+        try {
+            return Files.getLastModifiedTime(dir);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String prefixOf(String name) {
+        int slash = name.lastIndexOf('/');
+        return name.substring(0, slash + 1) + VersionComparator.prefixOf(name.substring(slash + 1));
+    }
+}
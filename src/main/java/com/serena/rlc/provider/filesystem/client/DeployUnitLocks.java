@@ -0,0 +1,61 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Guards deploy unit directories against removal while they are being read. Copies hold the shared
+ * lock of their source unit for the whole copy; background removal, deduplication and rollbacks
+ * only proceed if they can take the exclusive lock without waiting.
+ *
+ * @author klee
+ */
+class DeployUnitLocks {
+
+    private final ConcurrentMap<Path, ReadWriteLock> locks = new ConcurrentHashMap<>();
+
+    void lockShared(Path unit) {
+        lockFor(unit).readLock().lock();
+    }
+
+    void unlockShared(Path unit) {
+        lockFor(unit).readLock().unlock();
+    }
+
+    /**
+     * @return true if no copy is using {@code unit}; the caller must then call
+     * {@link #unlockExclusive(Path)} from the same thread
+     */
+    boolean tryLockExclusive(Path unit) {
+        return lockFor(unit).writeLock().tryLock();
+    }
+
+    void unlockExclusive(Path unit) {
+        lockFor(unit).writeLock().unlock();
+    }
+
+    private ReadWriteLock lockFor(Path unit) {
+        Path key = unit.toAbsolutePath().normalize();
+        ReadWriteLock lock = locks.get(key);
+        if (lock == null) {
+            ReadWriteLock created = new ReentrantReadWriteLock();
+            lock = locks.putIfAbsent(key, created);
+            if (lock == null) {
+                lock = created;
+            }
+        }
+        return lock;
+    }
+}
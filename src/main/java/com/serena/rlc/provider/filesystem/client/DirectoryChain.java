@@ -0,0 +1,53 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * The directories from the root of a walk that follows symbolic links down to the one being
+ * visited, to detect symbolic links that lead back to one of their ancestors.
+ *
+ * @author klee
+ */
+final class DirectoryChain {
+
+    private final Path dir;
+    private final Object key;
+    private final DirectoryChain parent;
+
+    private DirectoryChain(Path dir, Object key, DirectoryChain parent) {
+        this.dir = dir;
+        this.key = key;
+        this.parent = parent;
+    }
+
+    /**
+     * @param parent chain of the directories above {@code dir}, or null for the root of the walk
+     * @param attrs  attributes of {@code dir}, read following links
+     * @return the chain extended by {@code dir}
+     * @throws FileSystemLoopException if {@code dir} is one of the directories above it
+     */
+    static DirectoryChain enter(DirectoryChain parent, Path dir, BasicFileAttributes attrs) throws IOException {
+        Object key = attrs.fileKey();
+        // without file keys compare the files themselves, which only a symbolic link can repeat
+        boolean compareFiles = key == null && Files.isSymbolicLink(dir);
+        for (DirectoryChain ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+            if (key != null ? key.equals(ancestor.key) : compareFiles && Files.isSameFile(dir, ancestor.dir)) {
+                throw new FileSystemLoopException(dir.toString());
+            }
+        }
+        return new DirectoryChain(dir, key, parent);
+    }
+}
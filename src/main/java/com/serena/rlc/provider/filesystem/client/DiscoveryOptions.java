@@ -0,0 +1,64 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+import java.util.regex.Pattern;
+
+/**
+ * Which directories below the base directory are deploy units. The base directory is walked down
+ * to {@code maxDepth} levels; a directory is a unit if it contains {@code markerFile} and its name
+ * matches {@code namePattern}, of which at least one should be given for deeper walks. Without
+ * either, the directories at exactly {@code maxDepth} are the units, so the default depth of 1
+ * lists the children of the base directory. The walk does not descend into units.
+ *
+ * @author klee
+ */
+public class DiscoveryOptions {
+
+    public static final DiscoveryOptions CHILDREN = new DiscoveryOptions(1, null, null);
+
+    private final int maxDepth;
+    private final String markerFile;
+    private final Pattern namePattern;
+
+    /**
+     * @throws IllegalArgumentException if {@code namePattern} is not a valid regular expression
+     */
+    public DiscoveryOptions(int maxDepth, String markerFile, String namePattern) {
+        this.maxDepth = Math.max(1, maxDepth);
+        this.markerFile = markerFile != null && !markerFile.trim().isEmpty() ? markerFile.trim() : null;
+        this.namePattern = namePattern != null && !namePattern.trim().isEmpty() ? Pattern.compile(namePattern.trim()) : null;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public String getMarkerFile() {
+        return markerFile;
+    }
+
+    public Pattern getNamePattern() {
+        return namePattern;
+    }
+
+    /**
+     * @return true if units are recognised by their depth only
+     */
+    public boolean isByDepth() {
+        return markerFile == null && namePattern == null;
+    }
+
+    @Override
+    public String toString() {
+        return "maxDepth=" + maxDepth + (markerFile != null ? ", markerFile=" + markerFile : "")
+                + (namePattern != null ? ", namePattern=" + namePattern : "");
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+/**
+ * When a copy forces what it wrote to stable storage.
+ *
+ * @author klee
+ */
+public enum Durability {
+
+    /**
+     * Leave flushing to the operating system; fastest, but a crash may lose recently copied files.
+     */
+    NONE("none"),
+
+    /**
+     * Sync every file as soon as it has been written, then the destination directories.
+     */
+    PER_FILE("per-file"),
+
+    /**
+     * Sync all written files and directories in parallel once the copy has finished.
+     */
+    END("end");
+
+    private final String value;
+
+    Durability(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * @return the durability named {@code value}, e.g. {@code per-file}
+     * @throws IllegalArgumentException if there is none
+     */
+    public static Durability fromValue(String value) {
+        for (Durability durability : values()) {
+            if (durability.value.equalsIgnoreCase(value.trim()) || durability.name().equalsIgnoreCase(value.trim())) {
+                return durability;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported durability " + value + ", expected none, per-file or end");
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+}
@@ -10,19 +10,38 @@
 package com.serena.rlc.provider.filesystem.client;
 
 import com.serena.rlc.provider.domain.SessionData;
+import com.serena.rlc.provider.filesystem.domain.CopyResult;
 import com.serena.rlc.provider.filesystem.domain.Directory;
+import com.serena.rlc.provider.filesystem.domain.DirectoryDiff;
+import com.serena.rlc.provider.filesystem.domain.Manifest;
 import com.serena.rlc.provider.filesystem.exception.FilesystemClientException;
-import org.apache.commons.io.FileUtils;
+import com.serena.rlc.provider.filesystem.metrics.FilesystemMetrics;
+import com.serena.rlc.provider.filesystem.metrics.OperationMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author klee
@@ -32,8 +51,22 @@ import java.util.ArrayList;
 public class FilesystemClient {
     private static final Logger logger = LoggerFactory.getLogger(FilesystemClient.class);
 
+    private static final long RETENTION_INITIAL_DELAY_MINUTES = 1;
+    private static final long RETENTION_INTERVAL_MINUTES = 60;
+    private static final int DELETE_BATCH_SIZE = 64;
+    private static final ScheduledExecutorService retentionScheduler =
+            Executors.newSingleThreadScheduledExecutor(new WorkerThreadFactory("filesystem-retention", Thread.MIN_PRIORITY));
+
     private String baseDir;
     private SessionData session;
+    private ContentStore contentStore;
+    private final DeployUnitLocks unitLocks = new DeployUnitLocks();
+    private final ManifestCache manifestCache = new ManifestCache();
+    private final SnapshotManager snapshotManager = new SnapshotManager();
+    private final ConcurrentMap<Path, RetentionJob> retentionJobs = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Path, Progress> inProgress = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Progress> remoteInProgress = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, DeployUnitIndex> unitIndexes = new ConcurrentHashMap<>();
 
     public FilesystemClient() {
 
@@ -60,43 +93,187 @@ public class FilesystemClient {
         this.baseDir = baseDir;
     }
 
+    public ContentStore getContentStore() {
+        return contentStore;
+    }
+
     public void createConnection(SessionData session, String baseDir) {
         this.session = session;
         this.baseDir = baseDir;
     }
 
-    public ArrayList<Directory> getDirectories(String dirNameFilter) throws FilesystemClientException {
-        logger.debug("Using Filesystem Base Directory: " + this.getBaseDir());
-        logger.debug("Using Filesystem Directory Name Filter: " + (dirNameFilter != null && !dirNameFilter.isEmpty() ? dirNameFilter : "none defined"));
+    public void createConnection(SessionData session, String baseDir, String contentStoreDir) throws FilesystemClientException {
+        createConnection(session, baseDir, contentStoreDir, DiscoveryOptions.CHILDREN);
+    }
 
-        String duDir = null;
-        duDir = this.getBaseDir() + File.separator;
-        logger.debug("Filesystem Deployment Unit directory: " + duDir);
-
-        ArrayList directories = new ArrayList();
-
-        File file = new File(duDir);
-        String[] names = file.list();
-        int count = 0;
-        for (String name : names) {
-            File fdir = new File(duDir + name);
-            if (fdir.isDirectory()) {
-                if (dirNameFilter != null && !dirNameFilter.isEmpty()) {
-                    if (fdir.getName().contains(dirNameFilter)) {
-                        Directory fsdir = new Directory(name, name, fdir.getAbsolutePath());
-                        directories.add(fsdir);
-                        logger.debug("Filtered Directory: " + name);
-                    }
-                } else {
-                    Directory fsdir = new Directory(name, name, fdir.getAbsolutePath());
-                    directories.add(fsdir);
-                    logger.debug("Found Directory: " + name);
-                }
+    /**
+     * @param discoveryOptions which directories below {@code baseDir} are deploy units and are
+     *                         deduplicated into the content store
+     */
+    public void createConnection(SessionData session, String baseDir, String contentStoreDir, DiscoveryOptions discoveryOptions) throws FilesystemClientException {
+        createConnection(session, baseDir);
+
+        if (contentStoreDir == null || contentStoreDir.trim().isEmpty()) {
+            this.contentStore = null;
+            return;
+        }
+        try {
+            Path storeRoot = Paths.get(contentStoreDir.trim()).toAbsolutePath().normalize();
+            if (this.contentStore == null || !this.contentStore.getRoot().equals(storeRoot)) {
+                logger.debug("Using Filesystem Content Store: " + storeRoot);
+                this.contentStore = new ContentStore(storeRoot.toString());
+                this.contentStore.setUnitLocks(unitLocks);
+            }
+        } catch (IOException e) {
+            logger.debug(e.getLocalizedMessage());
+            throw new FilesystemClientException("Unable to open content store " + contentStoreDir + ": " + e.getLocalizedMessage(), e);
+        }
+        if (baseDir != null) {
+            this.contentStore.deduplicateInBackground(Paths.get(baseDir), discoveryOptions);
+        }
+    }
+
+    /**
+     * Enforce {@code policy} on the current base directory from a low priority background job that
+     * runs once an hour. Calling this again only updates the policy of the existing job.
+     *
+     * @return the retention job of the base directory, or null if there is nothing to enforce
+     */
+    public RetentionJob scheduleRetention(RetentionPolicy policy) {
+        return scheduleRetention(policy, DiscoveryOptions.CHILDREN);
+    }
+
+    /**
+     * @param discoveryOptions which directories below the base directory are the deploy units that
+     *                         the policy applies to
+     */
+    public RetentionJob scheduleRetention(RetentionPolicy policy, DiscoveryOptions discoveryOptions) {
+        if (this.getBaseDir() == null) {
+            return null;
+        }
+        Path base = Paths.get(this.getBaseDir()).toAbsolutePath().normalize();
+        RetentionJob job = retentionJobs.get(base);
+        if (job == null) {
+            if (policy == null || !policy.isEnabled()) {
+                return null;
+            }
+            RetentionJob created = new RetentionJob(base, unitLocks);
+            job = retentionJobs.putIfAbsent(base, created);
+            if (job == null) {
+                job = created;
+                job.setPolicy(policy);
+                job.setDiscoveryOptions(discoveryOptions);
+                job.setContentStore(contentStore);
+                logger.debug("Scheduling retention (" + policy + ") of " + base);
+                retentionScheduler.scheduleWithFixedDelay(job, RETENTION_INITIAL_DELAY_MINUTES, RETENTION_INTERVAL_MINUTES, TimeUnit.MINUTES);
+                return job;
             }
         }
+        job.setPolicy(policy);
+        job.setDiscoveryOptions(discoveryOptions);
+        job.setContentStore(contentStore);
+        return job;
+    }
+
+    public RetentionJob getRetentionJob(String baseDir) {
+        return retentionJobs.get(Paths.get(baseDir).toAbsolutePath().normalize());
+    }
+
+    /**
+     * Receives the deploy units found by {@link #findDirectories(String, DiscoveryOptions, DirectoryVisitor)}.
+     * Units are found in parallel, so implementations must be thread safe.
+     */
+    public interface DirectoryVisitor {
+        void found(Directory directory);
+    }
+
+    public ArrayList<Directory> getDirectories(String dirNameFilter) throws FilesystemClientException {
+        return getDirectories(dirNameFilter, DiscoveryOptions.CHILDREN);
+    }
+
+    /**
+     * @return the deploy units whose name contains {@code dirNameFilter}, oldest version first
+     */
+    public ArrayList<Directory> getDirectories(String dirNameFilter, DiscoveryOptions options) throws FilesystemClientException {
+        return getDeployUnits(dirNameFilter, options, false, 0);
+    }
 
+    /**
+     * List deploy units from the version index of the base directory, which is built on first use
+     * and afterwards only updated for the directories that changed.
+     *
+     * @param newestFirst     true to list the newest versions first
+     * @param latestPerPrefix number of newest versions to list of each component (units in the
+     *                        same directory whose names agree up to the first digit), 0 for all
+     */
+    public ArrayList<Directory> getDeployUnits(String dirNameFilter, DiscoveryOptions options, boolean newestFirst, int latestPerPrefix) throws FilesystemClientException {
+        logger.debug("Listing deploy units of " + this.getBaseDir() + " (filter " + (dirNameFilter != null && !dirNameFilter.isEmpty() ? dirNameFilter : "none defined")
+                + ", " + (newestFirst ? "newest" : "oldest") + " first" + (latestPerPrefix > 0 ? ", latest " + latestPerPrefix : "") + ")");
+
+        OperationMetrics metrics = FilesystemMetrics.client("getDirectories");
+        long start = System.nanoTime();
+        Path base = Paths.get(this.getBaseDir()).toAbsolutePath().normalize();
+        DiscoveryOptions discoveryOptions = options != null ? options : DiscoveryOptions.CHILDREN;
+        Path excluded = contentStore != null ? contentStore.getRoot() : null;
+        String key = base + "|" + excluded + "|" + discoveryOptions;
+        DeployUnitIndex index = unitIndexes.get(key);
+        if (index == null) {
+            DeployUnitIndex created = new DeployUnitIndex(base, excluded, discoveryOptions);
+            index = unitIndexes.putIfAbsent(key, created);
+            if (index == null) {
+                index = created;
+            }
+        }
+        try {
+            index.refresh();
+        } catch (IOException e) {
+            unitIndexes.remove(key, index);
+            metrics.recordError(System.nanoTime() - start);
+            logger.debug(e.getLocalizedMessage());
+            throw new FilesystemClientException("Base directory " + this.getBaseDir() + " does not exist or cannot be read", e);
+        }
+        ArrayList<Directory> directories = new ArrayList<>(index.list(dirNameFilter, newestFirst, latestPerPrefix));
+        metrics.record(System.nanoTime() - start, directories.size(), 0);
         return directories;
+    }
 
+    /**
+     * Walk the base directory for deploy units whose name contains {@code dirNameFilter}, handing
+     * each unit to {@code visitor} as soon as it is found. The content store directory is never a
+     * unit.
+     */
+    public void findDirectories(String dirNameFilter, DiscoveryOptions options, DirectoryVisitor visitor) throws FilesystemClientException {
+        logger.debug("Using Filesystem Base Directory: " + this.getBaseDir());
+        logger.debug("Using Filesystem Directory Name Filter: " + (dirNameFilter != null && !dirNameFilter.isEmpty() ? dirNameFilter : "none defined"));
+        logger.debug("Using Filesystem Discovery Options: " + options);
+
+        OperationMetrics metrics = FilesystemMetrics.client("getDirectories");
+        final AtomicLong found = new AtomicLong();
+        final DirectoryVisitor delegate = visitor;
+        long start = System.nanoTime();
+        Object event = FilesystemEvents.beginDirectoryScan();
+        Path base = Paths.get(this.getBaseDir()).toAbsolutePath().normalize();
+        DeployUnitDiscovery discovery = new DeployUnitDiscovery(base, contentStore != null ? contentStore.getRoot() : null,
+                options != null ? options : DiscoveryOptions.CHILDREN, dirNameFilter, new DirectoryVisitor() {
+            @Override
+            public void found(Directory directory) {
+                logger.debug("Found Directory: " + directory.getName());
+                found.incrementAndGet();
+                delegate.found(directory);
+            }
+        });
+        long scanned;
+        try {
+            scanned = discovery.run();
+        } catch (IOException e) {
+            metrics.recordError(System.nanoTime() - start);
+            logger.debug(e.getLocalizedMessage());
+            throw new FilesystemClientException("Base directory " + this.getBaseDir() + " does not exist or cannot be read", e);
+        }
+        FilesystemEvents.endDirectoryScan(event, base, scanned, 0);
+        metrics.record(System.nanoTime() - start, found.get(), 0);
+        logger.debug("Found " + found.get() + " deploy units in " + base + " (" + scanned + " entries) in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
     }
 
     public Directory getDirectory(String dirName) throws FilesystemClientException {
@@ -117,52 +294,325 @@ public class FilesystemClient {
         return true;
     }
 
-    public void localCopy(String srcFolderPath, String destFolderPath, boolean preserveDates) throws FilesystemClientException {
+    /**
+     * Compare two directories file by file. Cached manifests are used when available, otherwise
+     * both directories are hashed in parallel.
+     */
+    public DirectoryDiff diffDirectories(String fromDirName, String toDirName) throws FilesystemClientException {
+        logger.debug("Comparing Filesystem Directory " + fromDirName + " with " + toDirName);
+
+        Path fromDir = Paths.get(fromDirName);
+        Path toDir = Paths.get(toDirName);
+        if (!Files.isDirectory(fromDir)) {
+            throw new FilesystemClientException("Directory " + fromDirName + " does not exist");
+        }
+        if (!Files.isDirectory(toDir)) {
+            throw new FilesystemClientException("Directory " + toDirName + " does not exist");
+        }
+
+        OperationMetrics metrics = FilesystemMetrics.client("diffDirectories");
+        long start = System.nanoTime();
+        try {
+            Iterator<Manifest.Entry> from = manifestCache.get(fromDir, contentStore).getEntries().iterator();
+            Iterator<Manifest.Entry> to = manifestCache.get(toDir, contentStore).getEntries().iterator();
+            DirectoryDiff diff = new DirectoryDiff(fromDirName, toDirName);
+
+            // both manifests are ordered by path, so a single merge pass finds every change
+            Manifest.Entry fromEntry = from.hasNext() ? from.next() : null;
+            Manifest.Entry toEntry = to.hasNext() ? to.next() : null;
+            while (fromEntry != null || toEntry != null) {
+                int order = fromEntry == null ? 1 : toEntry == null ? -1 : fromEntry.getPath().compareTo(toEntry.getPath());
+                if (order < 0) {
+                    diff.addChange(new DirectoryDiff.Change(fromEntry.getPath(), DirectoryDiff.ChangeType.REMOVED, fromEntry.getSize(), 0));
+                    fromEntry = from.hasNext() ? from.next() : null;
+                } else if (order > 0) {
+                    diff.addChange(new DirectoryDiff.Change(toEntry.getPath(), DirectoryDiff.ChangeType.ADDED, 0, toEntry.getSize()));
+                    toEntry = to.hasNext() ? to.next() : null;
+                } else {
+                    if (!fromEntry.getHash().equals(toEntry.getHash())) {
+                        diff.addChange(new DirectoryDiff.Change(toEntry.getPath(), DirectoryDiff.ChangeType.MODIFIED, fromEntry.getSize(), toEntry.getSize()));
+                    }
+                    fromEntry = from.hasNext() ? from.next() : null;
+                    toEntry = to.hasNext() ? to.next() : null;
+                }
+            }
+
+            logger.debug("Found " + diff.getChanges().size() + " changed files between " + fromDirName + " and " + toDirName);
+            metrics.record(System.nanoTime() - start, diff.getChanges().size(), 0);
+            return diff;
+
+        } catch (IOException e) {
+            metrics.recordError(System.nanoTime() - start);
+            logger.debug(e.getLocalizedMessage());
+            throw new FilesystemClientException(e.getLocalizedMessage());
+        }
+    }
+
+    public CopyResult localCopy(String srcFolderPath, String destFolderPath, boolean preserveDates) throws FilesystemClientException {
+        return localCopy(srcFolderPath, destFolderPath, new CopyOptions(preserveDates));
+    }
+
+    public CopyResult localCopy(String srcFolderPath, String destFolderPath, boolean preserveDates, boolean linkFromStore) throws FilesystemClientException {
+        CopyOptions options = new CopyOptions(preserveDates);
+        options.setLinkFromStore(linkFromStore);
+        return localCopy(srcFolderPath, destFolderPath, options);
+    }
+
+    /**
+     * Copy {@code srcFolderPath} to {@code destFolderPath}, which is either a local path or a URI
+     * such as {@code sftp://host/path} that is copied to by its {@link TransferBackend}.
+     */
+    public CopyResult localCopy(String srcFolderPath, String destFolderPath, CopyOptions options) throws FilesystemClientException {
+        if (TransferBackends.isRemote(destFolderPath)) {
+            return remoteCopy(srcFolderPath, destFolderPath, options);
+        }
         File source = new File(srcFolderPath);
         File destination = new File(destFolderPath);
 
+        if (!source.exists()) {
+            throw new FilesystemClientException("Source directory " + srcFolderPath + " does not exist");
+        }
+
+        if (!destination.exists()) {
+            logger.debug("Target directory " + destFolderPath + " does not exist, but it will be created...");
+        }
+        logger.debug("Copying " + srcFolderPath + " to " + destFolderPath + " using options: " + options);
+
+        OperationMetrics metrics = FilesystemMetrics.client("localCopy");
+        long start = System.nanoTime();
+        // keep the retention job from removing the source while it is being copied
+        Object queueEvent = FilesystemEvents.beginQueueWait();
+        unitLocks.lockShared(source.toPath());
+        FilesystemEvents.endQueueWait(queueEvent, "deploy-unit-lock", source.toPath());
+        metrics.recordQueueWait(System.nanoTime() - start);
         try {
-            if (!source.exists()) {
-                throw new FilesystemClientException("Source directory " + srcFolderPath + " does not exist");
+            Manifest manifest = null;
+            if (options.isLinkFromStore()) {
+                if (contentStore == null) {
+                    logger.debug("No content store is configured, copying all files...");
+                } else {
+                    manifest = contentStore.readManifest(source.toPath());
+                    if (manifest == null) {
+                        logger.debug("Source directory " + srcFolderPath + " has not been deduplicated yet, copying all files...");
+                    }
+                }
             }
 
-            if (!destination.exists()) {
-                logger.debug("Target directory " + destFolderPath + " does not exist, but it will be created...");
+            // fails if another copy or delete is writing to the destination
+            Progress progress = startProgress("copy", destination.toPath(), source.toPath(), manifest);
+            Path snapshot = null;
+            CopyResult result;
+            try {
+                if (options.isSnapshot()) {
+                    snapshot = snapshotManager.take(destination.toPath());
+                }
+                result = new CopyEngine(source.toPath(), destination.toPath(), options, manifest, contentStore, progress).copy();
+            } finally {
+                inProgress.remove(progressKey(destination.toPath()), progress);
             }
 
-            FileUtils.copyDirectory(source, destination, preserveDates);
+            if (snapshot != null) {
+                result.setSnapshot(snapshot.getFileName().toString());
+                snapshotManager.prune(destination.toPath(), options.getSnapshotLimit());
+            }
+            metrics.record(System.nanoTime() - start, result.getFilesCopied() + result.getFilesLinked(), result.getBytesCopied());
+            return result;
 
         } catch (IOException e) {
+            metrics.recordError(System.nanoTime() - start);
             logger.debug(e.getLocalizedMessage());
             throw new FilesystemClientException(e.getLocalizedMessage());
+        } finally {
+            unitLocks.unlockShared(source.toPath());
         }
 
     }
 
+    /**
+     * Check that a copy of {@code srcFolderPath} can run now: no other copy or delete may be
+     * writing to the source or to {@code destFolderPath}, and the destination volume must have the space and inodes
+     * for the files the copy writes, as computed by {@link #requiredForCopy(Path, Path, CopyOptions)}.
+     *
+     * @return a one line description of the check
+     * @throws FilesystemClientException with the reason if the copy would not fit or the
+     *                                   destination is in use
+     */
+    public String preflightCopy(String srcFolderPath, String destFolderPath, CopyOptions options) throws FilesystemClientException {
+        checkNotInUse(destFolderPath);
+        checkNotInUse(srcFolderPath);
+        if (TransferBackends.isRemote(destFolderPath)) {
+            // the remote volume is not visible from here; a full volume fails the copy itself
+            return "remote destination " + remoteKey(destFolderPath) + ", capacity not checked";
+        }
+
+        Path source = Paths.get(srcFolderPath);
+        Path destination = Paths.get(destFolderPath);
+        long start = System.nanoTime();
+        try {
+
+            long[] required = requiredForCopy(source, destination, options);
+            String check = CopyPreflight.check(destination, required[0], required[1]);
+            logger.debug("Preflight of copy " + srcFolderPath + " to " + destFolderPath + " passed in "
+                    + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) + " us: " + check);
+            return check;
+        } catch (IOException e) {
+            logger.debug(e.getLocalizedMessage());
+            throw new FilesystemClientException(e.getLocalizedMessage(), e);
+        }
+    }
+
+    /**
+     * The files and bytes a copy of {@code source} adds to the volume of {@code destination}. The
+     * source size is taken from a cached manifest when there is one, otherwise from a parallel
+     * scan; both follow symbolic links like the copy. Files that will be hard linked from the
+     * content store need no space. When no snapshot keeps them, the destination files that the
+     * copy replaces are counted as freed; any other content of the destination stays and frees
+     * nothing.
+     *
+     * @return {@code {files, bytes}}
+     */
+    long[] requiredForCopy(Path source, Path destination, CopyOptions options) throws IOException {
+        boolean replaces = !options.isSnapshot() && Files.isDirectory(destination);
+        Manifest manifest = null;
+        boolean linked = false;
+        if (options.isLinkFromStore() && contentStore != null
+                && Files.getFileStore(contentStore.getRoot()).equals(Files.getFileStore(existingParent(destination)))) {
+            // the manifest the copy links from
+            manifest = contentStore.readManifest(source);
+            linked = manifest != null;
+        }
+        if (manifest == null) {
+            manifest = manifestCache.getCached(source, contentStore);
+        }
+        long[] size;
+        if (manifest != null) {
+            List<Manifest.Entry> written = new ArrayList<>(manifest.size());
+            long bytes = 0;
+            for (Manifest.Entry entry : manifest.getEntries()) {
+                if (!linked || !contentStore.contains(entry.getHash())) {
+                    written.add(entry);
+                    bytes += entry.getSize();
+                }
+            }
+            long[] replaced = replaces ? TreeSize.scanExisting(destination, written) : new long[2];
+            size = new long[]{written.size(), bytes, replaced[0], replaced[1]};
+        } else {
+            size = TreeSize.scan(source, replaces ? destination : null);
+        }
+        return new long[]{Math.max(0, size[0] - size[2]), Math.max(0, size[1] - size[3])};
+    }
+
+    /**
+     * @throws FilesystemClientException if a copy or delete is writing to, above or below
+     *                                   {@code destFolderPath}
+     */
+    public void checkNotInUse(String destFolderPath) throws FilesystemClientException {
+        Progress running = TransferBackends.isRemote(destFolderPath) ? findRemoteInProgress(remoteKey(destFolderPath))
+                : findInProgress(progressKey(Paths.get(destFolderPath)));
+        if (running != null) {
+            throw new FilesystemClientException("Directory " + destFolderPath + " is in use: " + running.getSummary());
+        }
+    }
+
+    /**
+     * Restore the newest snapshot taken of {@code destFolderPath} by a copy.
+     *
+     * @return the name of the restored snapshot
+     */
+    public String rollbackDir(String destFolderPath) throws FilesystemClientException {
+        logger.debug("Rolling back directory " + destFolderPath + " to its latest snapshot");
+        OperationMetrics metrics = FilesystemMetrics.client("rollbackDir");
+        long start = System.nanoTime();
+        Path destination = Paths.get(destFolderPath);
+        // the destination may itself be the source of a running copy
+        if (!unitLocks.tryLockExclusive(destination)) {
+            metrics.recordError(System.nanoTime() - start);
+            throw new FilesystemClientException("Directory " + destFolderPath + " is in use by a running copy");
+        }
+        try {
+            // fails if a copy or delete is writing to the destination
+            Progress progress = startProgress("rollback", destination, null, null);
+            String restored;
+            try {
+                restored = snapshotManager.rollback(destination).getFileName().toString();
+            } finally {
+                inProgress.remove(progressKey(destination), progress);
+            }
+            metrics.record(System.nanoTime() - start, 0, 0);
+            return restored;
+        } catch (NoSuchFileException e) {
+            metrics.recordError(System.nanoTime() - start);
+            throw new FilesystemClientException("Directory " + destFolderPath + " has no snapshot to roll back to");
+        } catch (IOException e) {
+            metrics.recordError(System.nanoTime() - start);
+            logger.debug(e.getLocalizedMessage());
+            throw new FilesystemClientException(e.getLocalizedMessage());
+        } finally {
+            unitLocks.unlockExclusive(destination);
+        }
+    }
+
+    public boolean hasSnapshot(String destFolderPath) throws FilesystemClientException {
+        try {
+            return !snapshotManager.list(Paths.get(destFolderPath)).isEmpty();
+        } catch (IOException e) {
+            logger.debug(e.getLocalizedMessage());
+            throw new FilesystemClientException(e.getLocalizedMessage());
+        }
+    }
+
     public void localDelete(String destFolderPath, boolean ignoreNotExists) throws FilesystemClientException {
         Path destination = Paths.get(destFolderPath);
 
+        OperationMetrics metrics = FilesystemMetrics.client("localDelete");
+        long start = System.nanoTime();
+        long filesDeleted = 0;
+        long bytesDeleted = 0;
         try {
             if (!Files.exists(destination)) {
                 if (ignoreNotExists) {
                     logger.debug("Destination directory " + destFolderPath + " does not exist, ignoring...");
                 } else {
+                    metrics.recordError(System.nanoTime() - start);
                     throw new FilesystemClientException("Destination directory " + destFolderPath + " does not exist");
                 }
             } else {
-                FileUtils.deleteDirectory(destination.toFile());
+                Progress progress = startProgress("delete", destination, destination, null);
+                Object event = FilesystemEvents.beginDeleteBatch();
+                try {
+                    deleteTree(destination, progress);
+                } finally {
+                    inProgress.remove(progressKey(destination), progress);
+                    FilesystemEvents.endDeleteBatch(event, destination, progress.getFilesDone(), progress.getBytesDone());
+                }
+                filesDeleted = progress.getFilesDone();
+                bytesDeleted = progress.getBytesDone();
             }
+            metrics.record(System.nanoTime() - start, filesDeleted, bytesDeleted);
 
         } catch (IOException e) {
+            metrics.recordError(System.nanoTime() - start);
             logger.debug(e.getLocalizedMessage());
             throw new FilesystemClientException(e.getLocalizedMessage());
         }
 
     }
 
+    /**
+     * @return the progress of the copy to, or delete of, {@code dirName}, or null if none is running
+     */
+    public Progress getProgress(String dirName) {
+        if (TransferBackends.isRemote(dirName)) {
+            return remoteInProgress.get(remoteKey(dirName));
+        }
+        return inProgress.get(progressKey(Paths.get(dirName)));
+    }
+
     public void localExec(String execScript, String execDir, String execParams, boolean ignoreErrors) throws FilesystemClientException {
         Path script = Paths.get(execDir + File.separatorChar + execScript);
 
+        OperationMetrics metrics = FilesystemMetrics.client("localExec");
+        long start = System.nanoTime();
         try {
             if (!Files.exists(script)) {
                 if (ignoreErrors) {
@@ -173,19 +623,229 @@ public class FilesystemClient {
             } else {
                 ProcessBuilder pb = new ProcessBuilder(script.toString());
                 pb.directory(new File(script.getParent().toString()));
-                System.out.println(pb.directory().toString());
                 logger.debug("Executing script " + execScript + " in directory " + execDir + " with parameters: " + execParams);
+                pb.redirectErrorStream(true);
+                Object event = FilesystemEvents.beginProcess();
                 Process p = pb.start();     // Start the process.
-                p.waitFor();                // Wait for the process to finish.
+                FilesystemEvents.processStart(script.toString(), pb.directory().toPath());
+                Future<?> output = drainOutput(p, execScript);
+                int exitCode = p.waitFor(); // Wait for the process to finish.
+                output.get();
+                FilesystemEvents.endProcess(event, script.toString(), pb.directory().toPath(), exitCode);
                 logger.debug("Executed script " + execScript + " successfully.");
             }
+            metrics.record(System.nanoTime() - start, 0, 0);
         } catch (Exception e) {
+            metrics.recordError(System.nanoTime() - start);
             logger.debug(e.getLocalizedMessage());
             throw new FilesystemClientException(e.getLocalizedMessage());
         }
 
     }
 
+    //================================================================================
+    // Private Methods
+    //================================================================================
+
+    private static Path progressKey(Path dir) {
+        return dir.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Register the progress of an operation on {@code target}. Totals are taken from
+     * {@code manifest} if there is one, otherwise from a cached manifest or a background scan of
+     * {@code scanned}; they stay unknown if both are null.
+     */
+    private Progress startProgress(String operation, Path target, Path scanned, Manifest manifest) throws IOException {
+        Progress progress = new Progress(operation, target.toString());
+        if (manifest == null && scanned != null && Files.isDirectory(scanned)) {
+            manifest = manifestCache.getCached(scanned, contentStore);
+        }
+        Path key = progressKey(target);
+        synchronized (inProgress) {
+            Progress running = findInProgress(key);
+            if (running != null) {
+                throw new FileSystemException(target.toString(), null, "in use: " + running.getSummary());
+            }
+            inProgress.put(key, progress);
+        }
+        if (manifest != null) {
+            progress.setTotals(manifest.size(), manifest.getTotalSize());
+        } else if (scanned != null) {
+            TreeSize.scanInBackground(scanned, progress);
+        }
+        return progress;
+    }
+
+    /**
+     * Copy to a remote destination through its transfer backend. Only one copy may write to a
+     * remote directory at a time; unlike local copies, the destination cannot be snapshotted,
+     * mirrored or linked to the content store.
+     */
+    private CopyResult remoteCopy(String srcFolderPath, String destFolderPath, CopyOptions options) throws FilesystemClientException {
+        Path source = Paths.get(srcFolderPath);
+        if (!Files.isDirectory(source)) {
+            throw new FilesystemClientException("Source directory " + srcFolderPath + " does not exist");
+        }
+        String key = remoteKey(destFolderPath);
+        logger.debug("Copying " + srcFolderPath + " to " + key + " using options: " + options + ", " + options.getTransferSettings());
+
+        OperationMetrics metrics = FilesystemMetrics.client("remoteCopy");
+        long start = System.nanoTime();
+        Object queueEvent = FilesystemEvents.beginQueueWait();
+        unitLocks.lockShared(source);
+        FilesystemEvents.endQueueWait(queueEvent, "deploy-unit-lock", source);
+        metrics.recordQueueWait(System.nanoTime() - start);
+        try {
+            URI destination = TransferBackends.parse(destFolderPath);
+            Progress progress = new Progress("copy", key);
+            synchronized (remoteInProgress) {
+                Progress running = findRemoteInProgress(key);
+                if (running != null) {
+                    throw new FileSystemException(key, null, "in use: " + running.getSummary());
+                }
+                remoteInProgress.put(key, progress);
+            }
+            CopyResult result;
+            try {
+                Manifest manifest = manifestCache.getCached(source, contentStore);
+                if (manifest != null) {
+                    progress.setTotals(manifest.size(), manifest.getTotalSize());
+                } else {
+                    TreeSize.scanInBackground(source, progress);
+                }
+                try (TransferBackend backend = TransferBackends.open(destination, options.getTransferSettings())) {
+                    result = backend.copy(source, destination, options, progress);
+                }
+            } finally {
+                remoteInProgress.remove(key, progress);
+            }
+            metrics.record(System.nanoTime() - start, result.getFilesCopied(), result.getBytesCopied());
+            return result;
+
+        } catch (IOException e) {
+            metrics.recordError(System.nanoTime() - start);
+            logger.debug(e.getLocalizedMessage());
+            throw new FilesystemClientException(e.getLocalizedMessage());
+        } finally {
+            unitLocks.unlockShared(source);
+        }
+    }
+
+    /**
+     * @return {@code destination} without user information and trailing slash, e.g.
+     * {@code sftp://host:22/path}, or the text itself if it is not a valid URI
+     */
+    private static String remoteKey(String destination) {
+        try {
+            URI uri = new URI(destination).normalize();
+            String path = uri.getPath() != null ? uri.getPath().replaceAll("/+$", "") : "";
+            return new URI(uri.getScheme().toLowerCase(), null, uri.getHost(), uri.getPort(), path, null, null).toString();
+        } catch (URISyntaxException e) {
+            return destination;
+        }
+    }
+
+    /**
+     * @return a running copy to the remote directory {@code key}, or to a directory above or below it
+     */
+    private Progress findRemoteInProgress(String key) {
+        for (Map.Entry<String, Progress> running : remoteInProgress.entrySet()) {
+            String other = running.getKey();
+            if (other.equals(key) || other.startsWith(key + "/") || key.startsWith(other + "/")) {
+                return running.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a running copy or delete of {@code dir}, or of a directory above or below it
+     */
+    private Progress findInProgress(Path dir) {
+        for (Map.Entry<Path, Progress> running : inProgress.entrySet()) {
+            if (running.getKey().startsWith(dir) || dir.startsWith(running.getKey())) {
+                return running.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static Path existingParent(Path path) {
+        Path existing = path.toAbsolutePath().normalize();
+        while (existing.getParent() != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        return existing;
+    }
+
+    /**
+     * Log the output of {@code process} from its own thread so that a script never blocks on a full
+     * pipe, however busy the file workers are.
+     */
+    private static Future<?> drainOutput(final Process process, final String name) {
+        return WorkerPools.process().submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        logger.debug(name + ": " + line);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Delete the files of {@code root} in parallel batches while walking it, then its directories.
+     */
+    private static void deleteTree(Path root, final Progress progress) throws IOException {
+        final List<Path> dirs = new ArrayList<>();
+        final ParallelBatches<Map.Entry<Path, BasicFileAttributes>> deletes = new ParallelBatches<>(DELETE_BATCH_SIZE,
+                new ParallelBatches.Handler<Map.Entry<Path, BasicFileAttributes>>() {
+                    @Override
+                    public void handle(List<Map.Entry<Path, BasicFileAttributes>> batch) throws IOException {
+                        for (Map.Entry<Path, BasicFileAttributes> file : batch) {
+                            Files.delete(file.getKey());
+                            progress.add(1, file.getValue().size());
+                        }
+                    }
+                });
+
+        boolean completed = false;
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    deletes.add(new AbstractMap.SimpleImmutableEntry<>(file, attrs));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    if (e != null) {
+                        throw e;
+                    }
+                    dirs.add(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            deletes.await();
+            completed = true;
+        } finally {
+            if (!completed) {
+                deletes.abort();
+            }
+        }
+
+        // children were added before their parents
+        for (Path dir : dirs) {
+            Files.delete(dir);
+        }
+    }
+
     static public void main(String[] args) {
         String versionPath = "C:\\Temp\\serena-provider-filesystem\\app-a";
         FilesystemClient fc = new FilesystemClient(null, versionPath, null);
@@ -0,0 +1,87 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+import java.nio.file.Path;
+
+/**
+ * Java Flight Recorder events of the filesystem client. This is the Java 8 version, where every
+ * method does nothing; on Java 11 and later the multi-release jar supplies a version from
+ * {@code src/main/java11} that emits {@code com.serena.rlc.provider.filesystem.*} events.
+ * <p>
+ * Timed events are used as {@code Object event = beginX(); ...; endX(event, ...)}. The token is
+ * null whenever the event is not being recorded, so callers never pay for more than the check.
+ *
+ * @author klee
+ */
+final class FilesystemEvents {
+
+    /**
+     * Smallest file whose copy is recorded, in bytes; set with
+     * {@code -Drlc.filesystem.jfr.copyThreshold=<bytes>}.
+     */
+    static final long COPY_THRESHOLD = Long.getLong("rlc.filesystem.jfr.copyThreshold", 1024 * 1024);
+
+    private FilesystemEvents() {
+
+    }
+
+    static Object beginDirectoryScan() {
+        return null;
+    }
+
+    static void endDirectoryScan(Object event, Path dir, long files, long bytes) {
+
+    }
+
+    static Object beginFileCopy() {
+        return null;
+    }
+
+    static void endFileCopy(Object event, Path source, Path destination, long bytes) {
+
+    }
+
+    static Object beginDeleteBatch() {
+        return null;
+    }
+
+    static void endDeleteBatch(Object event, Path dir, long entries, long bytes) {
+
+    }
+
+    static void processStart(String command, Path dir) {
+
+    }
+
+    static Object beginProcess() {
+        return null;
+    }
+
+    static void endProcess(Object event, String command, Path dir, int exitCode) {
+
+    }
+
+    static Object beginThrottleWait() {
+        return null;
+    }
+
+    static void endThrottleWait(Object event, String throttle, Path path) {
+
+    }
+
+    static Object beginQueueWait() {
+        return null;
+    }
+
+    static void endQueueWait(Object event, String queue, Path path) {
+
+    }
+}
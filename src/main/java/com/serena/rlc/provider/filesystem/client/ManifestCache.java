@@ -0,0 +1,193 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+import com.serena.rlc.provider.filesystem.domain.Manifest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Manifests of recently used deploy units. A manifest is taken from memory, then from the content
+ * store, and is otherwise built by hashing the files of the unit in parallel batches. Like the content store manifests, a
+ * cached manifest is dropped when the modification time of the unit root changes. Otherwise the
+ * tree is walked again on every use and only the files that are new or differ in size or
+ * modification time are hashed, so that files added, replaced or edited in place below the root
+ * are never missed or described by a stale hash. Symbolic links are followed, so that a manifest
+ * describes the files a copy of the unit writes.
+ *
+ * @author klee
+ */
+class ManifestCache {
+    private static final Logger logger = LoggerFactory.getLogger(ManifestCache.class);
+
+    private static final int MAX_ENTRIES = 64;
+    private static final int BATCH_SIZE = 64;
+
+    private final Map<Path, Manifest> manifests = new LinkedHashMap<Path, Manifest>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Manifest> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * @return the cached manifest of {@code unitDir}, or null if none is cached; only reads the
+     * files of the unit that were added or changed since the manifest was taken
+     */
+    Manifest getCached(Path unitDir, ContentStore contentStore) throws IOException {
+        Path unitRoot = unitDir.toAbsolutePath().normalize();
+        long rootModified = Files.getLastModifiedTime(unitRoot).toMillis();
+        Manifest manifest;
+        synchronized (manifests) {
+            manifest = manifests.get(unitRoot);
+        }
+        if (manifest != null && manifest.getRootModified() == rootModified) {
+            Manifest revalidated = revalidate(unitRoot, manifest);
+            if (revalidated != manifest) {
+                put(unitRoot, revalidated);
+            }
+            return revalidated;
+        }
+        if (contentStore != null) {
+            // revalidated by the store
+            manifest = contentStore.readManifest(unitRoot);
+            if (manifest != null) {
+                put(unitRoot, manifest);
+                return manifest;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the manifest of {@code unitDir}, hashing the unit if no manifest is cached
+     */
+    Manifest get(Path unitDir, ContentStore contentStore) throws IOException {
+        Manifest manifest = getCached(unitDir, contentStore);
+        if (manifest != null) {
+            return manifest;
+        }
+
+        Path unitRoot = unitDir.toAbsolutePath().normalize();
+        long start = System.currentTimeMillis();
+        long rootModified = Files.getLastModifiedTime(unitRoot).toMillis();
+        Object event = FilesystemEvents.beginDirectoryScan();
+        Manifest built = revalidate(unitRoot, new Manifest(unitRoot.toString(), rootModified));
+        FilesystemEvents.endDirectoryScan(event, unitRoot, built.size(), built.getTotalSize());
+        put(unitRoot, built);
+        logger.debug("Built manifest of " + unitRoot + " (" + built.size() + " files) in " + (System.currentTimeMillis() - start) + " ms");
+        return built;
+    }
+
+    /**
+     * Walk the tree of {@code unitRoot} and compare the size and modification time of every file
+     * with {@code manifest}, hashing the files that are new or differ in parallel batches and
+     * dropping those that are gone. The whole tree is walked, as a file added to a subdirectory
+     * does not change the modification time of the root.
+     *
+     * @return {@code manifest} itself if all of its files are unchanged, otherwise a corrected copy
+     */
+    static Manifest revalidate(final Path unitRoot, final Manifest manifest) throws IOException {
+        final Set<String> unseen = new HashSet<>();
+        for (Manifest.Entry entry : manifest.getEntries()) {
+            unseen.add(entry.getPath());
+        }
+        final Queue<Manifest.Entry> changed = new ConcurrentLinkedQueue<>();
+        final ParallelBatches<Map.Entry<String, BasicFileAttributes>> hashes = new ParallelBatches<>(BATCH_SIZE,
+                new ParallelBatches.Handler<Map.Entry<String, BasicFileAttributes>>() {
+                    @Override
+                    public void handle(List<Map.Entry<String, BasicFileAttributes>> batch) throws IOException {
+                        for (Map.Entry<String, BasicFileAttributes> file : batch) {
+                            BasicFileAttributes attrs = file.getValue();
+                            changed.add(new Manifest.Entry(file.getKey(), attrs.size(), attrs.lastModifiedTime().toMillis(),
+                                    ContentStore.objectKey(unitRoot.resolve(file.getKey()))));
+                        }
+                    }
+                });
+
+        boolean completed = false;
+        try {
+            Files.walkFileTree(unitRoot, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (attrs.isRegularFile()) {
+                        String path = ContentStore.relativePath(unitRoot, file);
+                        Manifest.Entry entry = manifest.getEntry(path);
+                        unseen.remove(path);
+                        if (entry == null || attrs.size() != entry.getSize() || attrs.lastModifiedTime().toMillis() != entry.getModified()) {
+                            hashes.add(new AbstractMap.SimpleImmutableEntry<>(path, attrs));
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                    if (e instanceof NoSuchFileException) {
+                        // removed while walking, dropped like any other missing file
+                        return FileVisitResult.CONTINUE;
+                    }
+                    throw e;
+                }
+            });
+            hashes.await();
+            completed = true;
+        } finally {
+            if (!completed) {
+                hashes.abort();
+            }
+        }
+        if (changed.isEmpty() && unseen.isEmpty()) {
+            return manifest;
+        }
+
+        Manifest revalidated = new Manifest(manifest.getRoot(), manifest.getRootModified());
+        for (Manifest.Entry entry : manifest.getEntries()) {
+            if (!unseen.contains(entry.getPath())) {
+                revalidated.addEntry(entry);
+            }
+        }
+        for (Manifest.Entry entry : changed) {
+            revalidated.addEntry(entry);
+        }
+        logger.debug("Hashed " + changed.size() + " new or changed files of " + unitRoot + ", " + unseen.size() + " files are gone");
+        return revalidated;
+    }
+
+    //================================================================================
+    // Private Methods
+    //================================================================================
+
+    private void put(Path unitRoot, Manifest manifest) {
+        synchronized (manifests) {
+            manifests.put(unitRoot, manifest);
+        }
+    }
+}
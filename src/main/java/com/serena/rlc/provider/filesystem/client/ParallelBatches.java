@@ -0,0 +1,121 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs blocking work on {@link WorkerPools#blocking()} in batches while the caller keeps producing
+ * items, e.g. while it walks a tree. At most {@link WorkerPools#BLOCKING_PARALLELISM} batches are
+ * in flight, so the producer slows down to the speed of the workers instead of queueing the whole
+ * tree. The first failure stops further batches and is rethrown by {@link #await()}; a producer
+ * that fails itself must call {@link #abort()} so that no batch outlives the operation.
+ *
+ * @author klee
+ */
+class ParallelBatches<T> {
+
+    interface Handler<T> {
+        void handle(List<T> batch) throws IOException;
+    }
+
+    private final int batchSize;
+    private final Handler<T> handler;
+    private final Semaphore permits = new Semaphore(WorkerPools.BLOCKING_PARALLELISM);
+    private final AtomicReference<IOException> failure = new AtomicReference<>();
+    private List<T> batch;
+
+    ParallelBatches(int batchSize, Handler<T> handler) {
+        this.batchSize = batchSize;
+        this.handler = handler;
+        this.batch = new ArrayList<>(batchSize);
+    }
+
+    void add(T item) throws IOException {
+        batch.add(item);
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Submit the items added so far, waiting for a free slot if too many batches are in flight.
+     */
+    void flush() throws IOException {
+        throwFailure();
+        if (batch.isEmpty()) {
+            return;
+        }
+        final List<T> submitted = batch;
+        batch = new ArrayList<>(batchSize);
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for file workers");
+        }
+        try {
+            WorkerPools.blocking().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (failure.get() == null) {
+                            handler.handle(submitted);
+                        }
+                    } catch (IOException e) {
+                        failure.compareAndSet(null, e);
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, new IOException(e));
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            throw new IOException("Unable to start file worker: " + e.getLocalizedMessage(), e);
+        }
+    }
+
+    /**
+     * Flush the remaining items and wait until every batch has completed.
+     */
+    void await() throws IOException {
+        try {
+            flush();
+        } finally {
+            permits.acquireUninterruptibly(WorkerPools.BLOCKING_PARALLELISM);
+            permits.release(WorkerPools.BLOCKING_PARALLELISM);
+        }
+        throwFailure();
+    }
+
+    /**
+     * Skip the batches that have not started yet and wait for the running ones, after the
+     * producer failed.
+     */
+    void abort() {
+        failure.compareAndSet(null, new IOException("Aborted"));
+        permits.acquireUninterruptibly(WorkerPools.BLOCKING_PARALLELISM);
+        permits.release(WorkerPools.BLOCKING_PARALLELISM);
+    }
+
+    private void throwFailure() throws IOException {
+        IOException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live progress of a running copy or delete. Workers only add to striped counters, so reporting
+ * progress never makes them wait; readers derive throughput and ETA from the counters. Totals are
+ * unknown (-1) until they have been taken from a manifest or a pre-scan of the tree.
+ *
+ * @author klee
+ */
+public class Progress {
+
+    private static final long RATE_INTERVAL_MILLIS = 1000;
+
+    private final String operation;
+    private final String path;
+    private final long startMillis = System.currentTimeMillis();
+    private final LongAdder filesDone = new LongAdder();
+    private final LongAdder bytesDone = new LongAdder();
+    private volatile long totalFiles = -1;
+    private volatile long totalBytes = -1;
+
+    // sampled by readers only
+    private long sampleMillis = startMillis;
+    private long sampleBytes;
+    private double bytesPerSecond;
+
+    Progress(String operation, String path) {
+        this.operation = operation;
+        this.path = path;
+    }
+
+    void add(long files, long bytes) {
+        filesDone.add(files);
+        bytesDone.add(bytes);
+    }
+
+    void setTotals(long files, long bytes) {
+        this.totalFiles = files;
+        this.totalBytes = bytes;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public long getFilesDone() {
+        return filesDone.sum();
+    }
+
+    public long getBytesDone() {
+        return bytesDone.sum();
+    }
+
+    /**
+     * @return the number of files to process, or -1 if not known yet
+     */
+    public long getTotalFiles() {
+        return totalFiles;
+    }
+
+    /**
+     * @return the number of bytes to process, or -1 if not known yet
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return bytes processed per second over roughly the last second
+     */
+    public synchronized double getBytesPerSecond() {
+        long now = System.currentTimeMillis();
+        long elapsed = now - sampleMillis;
+        if (elapsed >= RATE_INTERVAL_MILLIS || (bytesPerSecond == 0 && elapsed > 0)) {
+            long bytes = bytesDone.sum();
+            bytesPerSecond = (bytes - sampleBytes) * 1000.0 / elapsed;
+            sampleMillis = now;
+            sampleBytes = bytes;
+        }
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return the fraction done between 0 and 1, or -1 if the totals are not known yet
+     */
+    public double getFractionDone() {
+        long files = totalFiles;
+        long bytes = totalBytes;
+        if (bytes > 0) {
+            return Math.min(1.0, getBytesDone() / (double) bytes);
+        }
+        if (files > 0) {
+            return Math.min(1.0, getFilesDone() / (double) files);
+        }
+        return files == 0 ? 1.0 : -1;
+    }
+
+    /**
+     * @return the estimated time to completion at the average rate so far, or -1 if unknown
+     */
+    public long getEtaMillis() {
+        double fraction = getFractionDone();
+        if (fraction <= 0) {
+            return -1;
+        }
+        long elapsed = System.currentTimeMillis() - startMillis;
+        return Math.round(elapsed / fraction - elapsed);
+    }
+
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(operation).append(' ').append(path).append(": ").append(getFilesDone());
+        if (totalFiles >= 0) {
+            summary.append('/').append(totalFiles);
+        }
+        summary.append(" files, ").append(getBytesDone());
+        if (totalBytes >= 0) {
+            summary.append('/').append(totalBytes);
+        }
+        summary.append(" bytes");
+        double fraction = getFractionDone();
+        if (fraction >= 0) {
+            summary.append(" (").append(Math.round(fraction * 100)).append("%)");
+        }
+        summary.append(String.format(", %.1f MB/s", getBytesPerSecond() / 1048576.0));
+        long eta = getEtaMillis();
+        summary.append(", ETA ").append(eta >= 0 ? (eta + 999) / 1000 + " s" : "unknown");
+        return summary.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getSummary();
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background job that enforces a {@link RetentionPolicy} on the deploy units below a base
+ * directory, found as described by its {@link DiscoveryOptions}. Units are ranked among those with
+ * the same parent directory and name prefix. Only units whose names carry a version (see
+ * {@link VersionComparator#isVersion(String)}) are considered, and never the newest of a prefix.
+ * Expired units are removed by a small pool of low priority threads whose
+ * combined delete rate is throttled so that the job does not starve deployments of I/O. Units that
+ * are the source of a running copy are skipped until the next run.
+ *
+ * @author klee
+ */
+public class RetentionJob implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(RetentionJob.class);
+
+    private static final int DELETE_THREADS = 2;
+    private static final long DELETES_PER_SECOND = 2000;
+
+    private static final ExecutorService deleteExecutor =
+            Executors.newFixedThreadPool(DELETE_THREADS, new WorkerThreadFactory("filesystem-retention-delete", Thread.MIN_PRIORITY));
+
+    private final Path baseDir;
+    private final DeployUnitLocks unitLocks;
+    private final long deleteIntervalNanos = TimeUnit.SECONDS.toNanos(1) / DELETES_PER_SECOND;
+    private final AtomicLong nextDeleteSlot = new AtomicLong(System.nanoTime());
+
+    private volatile RetentionPolicy policy;
+    private volatile DiscoveryOptions discoveryOptions = DiscoveryOptions.CHILDREN;
+    private volatile ContentStore contentStore;
+
+    private volatile long lastRun;
+    private volatile long lastUnitsRemoved;
+    private volatile long lastEntriesFreed;
+    private volatile long lastBytesFreed;
+    private final AtomicLong totalEntriesFreed = new AtomicLong();
+    private final AtomicLong totalBytesFreed = new AtomicLong();
+
+    RetentionJob(Path baseDir, DeployUnitLocks unitLocks) {
+        this.baseDir = baseDir;
+        this.unitLocks = unitLocks;
+    }
+
+    public Path getBaseDir() {
+        return baseDir;
+    }
+
+    public RetentionPolicy getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(RetentionPolicy policy) {
+        this.policy = policy;
+    }
+
+    public DiscoveryOptions getDiscoveryOptions() {
+        return discoveryOptions;
+    }
+
+    public void setDiscoveryOptions(DiscoveryOptions discoveryOptions) {
+        this.discoveryOptions = discoveryOptions != null ? discoveryOptions : DiscoveryOptions.CHILDREN;
+    }
+
+    public void setContentStore(ContentStore contentStore) {
+        this.contentStore = contentStore;
+    }
+
+    public long getLastRun() {
+        return lastRun;
+    }
+
+    public long getLastUnitsRemoved() {
+        return lastUnitsRemoved;
+    }
+
+    public long getLastEntriesFreed() {
+        return lastEntriesFreed;
+    }
+
+    public long getLastBytesFreed() {
+        return lastBytesFreed;
+    }
+
+    public long getTotalEntriesFreed() {
+        return totalEntriesFreed.get();
+    }
+
+    public long getTotalBytesFreed() {
+        return totalBytesFreed.get();
+    }
+
+    @Override
+    public void run() {
+        RetentionPolicy currentPolicy = this.policy;
+        if (currentPolicy == null || !currentPolicy.isEnabled() || !Files.isDirectory(baseDir)) {
+            return;
+        }
+
+        try {
+            List<Path> expired = findExpiredUnits(currentPolicy);
+            final AtomicLong entries = new AtomicLong();
+            final AtomicLong bytes = new AtomicLong();
+            List<Future<Boolean>> removals = new ArrayList<>();
+            for (final Path unit : expired) {
+                final Object queueEvent = FilesystemEvents.beginQueueWait();
+                removals.add(deleteExecutor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        FilesystemEvents.endQueueWait(queueEvent, "retention-delete", unit);
+                        return removeUnit(unit, entries, bytes);
+                    }
+                }));
+            }
+
+            long unitsRemoved = 0;
+            for (int i = 0; i < removals.size(); i++) {
+                try {
+                    if (removals.get(i).get()) {
+                        unitsRemoved++;
+                    }
+                } catch (ExecutionException e) {
+                    logger.warn("Unable to remove deploy unit " + expired.get(i) + ": " + e.getCause().getLocalizedMessage());
+                }
+            }
+
+            ContentStore store = this.contentStore;
+            if (store != null && unitsRemoved > 0) {
+                long[] freed = store.collectGarbage();
+                entries.addAndGet(freed[0]);
+                bytes.addAndGet(freed[1]);
+            }
+
+            lastUnitsRemoved = unitsRemoved;
+            lastEntriesFreed = entries.get();
+            lastBytesFreed = bytes.get();
+            totalEntriesFreed.addAndGet(lastEntriesFreed);
+            totalBytesFreed.addAndGet(lastBytesFreed);
+            if (unitsRemoved > 0) {
+                logger.info("Retention (" + currentPolicy + ") removed " + unitsRemoved + " deploy units from " + baseDir
+                        + ", freeing " + lastEntriesFreed + " entries and " + lastBytesFreed + " bytes");
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to apply retention policy to " + baseDir + ": " + e.getLocalizedMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lastRun = System.currentTimeMillis();
+        }
+    }
+
+    //================================================================================
+    // Private Methods
+    //================================================================================
+
+    private List<Path> findExpiredUnits(RetentionPolicy currentPolicy) throws IOException {
+        Map<String, List<Path>> unitsByPrefix = new HashMap<>();
+        ContentStore store = this.contentStore;
+        for (Path unit : DeployUnitDiscovery.findUnits(baseDir, store != null ? store.getRoot() : null, discoveryOptions)) {
+            String name = unit.getFileName().toString();
+            if (!VersionComparator.isVersion(name)) {
+                continue;
+            }
+            // versions of a component share their parent, e.g. app1/web-1.0 and app1/web-1.1
+            String prefix = unit.getParent() + "/" + VersionComparator.prefixOf(name);
+            List<Path> group = unitsByPrefix.get(prefix);
+            if (group == null) {
+                group = new ArrayList<>();
+                unitsByPrefix.put(prefix, group);
+            }
+            group.add(unit);
+        }
+
+        long now = System.currentTimeMillis();
+        List<Path> expired = new ArrayList<>();
+        for (List<Path> group : unitsByPrefix.values()) {
+            Collections.sort(group, new Comparator<Path>() {
+                @Override
+                public int compare(Path a, Path b) {
+                    return VersionComparator.INSTANCE.compare(b.getFileName().toString(), a.getFileName().toString());
+                }
+            });
+            for (int rank = 0; rank < group.size(); rank++) {
+                Path unit = group.get(rank);
+                if (!currentPolicy.isRetained(rank, Files.getLastModifiedTime(unit).toMillis(), now)) {
+                    expired.add(unit);
+                }
+            }
+        }
+        return expired;
+    }
+
+    private boolean removeUnit(Path unit, final AtomicLong entries, final AtomicLong bytes) throws IOException {
+        if (!unitLocks.tryLockExclusive(unit)) {
+            logger.debug("Deploy unit " + unit + " is in use, keeping it until the next retention run");
+            return false;
+        }
+        try {
+            if (!Files.exists(unit)) {
+                return false;
+            }
+            Object event = FilesystemEvents.beginDeleteBatch();
+            final long[] deleted = new long[2];
+            Files.walkFileTree(unit, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    throttle(file);
+                    long size = attrs.size();
+                    boolean shared = linkCount(file) > 1;
+                    Files.delete(file);
+                    entries.incrementAndGet();
+                    deleted[0]++;
+                    if (!shared) {
+                        bytes.addAndGet(size);
+                        deleted[1] += size;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    if (e != null) {
+                        throw e;
+                    }
+                    throttle(dir);
+                    Files.delete(dir);
+                    entries.incrementAndGet();
+                    deleted[0]++;
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            FilesystemEvents.endDeleteBatch(event, unit, deleted[0], deleted[1]);
+            ContentStore store = this.contentStore;
+            if (store != null) {
+                store.deleteManifest(unit);
+            }
+            logger.debug("Removed expired deploy unit " + unit);
+            return true;
+        } finally {
+            unitLocks.unlockExclusive(unit);
+        }
+    }
+
+    private void throttle(Path path) throws IOException {
+        long now = System.nanoTime();
+        long slot;
+        while (true) {
+            long next = nextDeleteSlot.get();
+            slot = Math.max(next, now);
+            if (nextDeleteSlot.compareAndSet(next, slot + deleteIntervalNanos)) {
+                break;
+            }
+        }
+        Object event = slot > now ? FilesystemEvents.beginThrottleWait() : null;
+        try {
+            TimeUnit.NANOSECONDS.sleep(slot - now);
+            FilesystemEvents.endThrottleWait(event, "retention-delete-rate", path);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Retention job interrupted");
+        }
+    }
+
+    static int linkCount(Path file) {
+        try {
+            return (Integer) Files.getAttribute(file, "unix:nlink", LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            return 1;
+        }
+    }
+}
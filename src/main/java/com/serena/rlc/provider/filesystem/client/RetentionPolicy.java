@@ -0,0 +1,76 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Which deploy unit directories to keep below the base directory. A unit is kept if it is one of
+ * the newest {@code keepLast} versions sharing its name prefix, or if it was modified within the
+ * last {@code maxAgeDays} days. A zero value disables the corresponding rule; with both rules
+ * disabled nothing is removed. The newest version of every prefix is always kept, whatever its age.
+ *
+ * @author klee
+ */
+public class RetentionPolicy {
+
+    private final int keepLast;
+    private final int maxAgeDays;
+
+    public RetentionPolicy(int keepLast, int maxAgeDays) {
+        this.keepLast = Math.max(0, keepLast);
+        this.maxAgeDays = Math.max(0, maxAgeDays);
+    }
+
+    public int getKeepLast() {
+        return keepLast;
+    }
+
+    public int getMaxAgeDays() {
+        return maxAgeDays;
+    }
+
+    public boolean isEnabled() {
+        return keepLast > 0 || maxAgeDays > 0;
+    }
+
+    /**
+     * @param rank     position of the unit among the versions with the same prefix, newest first
+     * @param modified last modification time of the unit in milliseconds
+     */
+    public boolean isRetained(int rank, long modified, long now) {
+        if (!isEnabled() || rank == 0) {
+            return true;
+        }
+        if (keepLast > 0 && rank < keepLast) {
+            return true;
+        }
+        return maxAgeDays > 0 && now - modified < TimeUnit.DAYS.toMillis(maxAgeDays);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof RetentionPolicy)) {
+            return false;
+        }
+        RetentionPolicy other = (RetentionPolicy) o;
+        return keepLast == other.keepLast && maxAgeDays == other.maxAgeDays;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * keepLast + maxAgeDays;
+    }
+
+    @Override
+    public String toString() {
+        return "keep last " + keepLast + ", max age " + maxAgeDays + " days";
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * Rollback snapshots of copy destinations. A snapshot is a tree of hard links to the destination
+ * files, taken just before a copy replaces them, and kept in a hidden sibling directory
+ * {@code .<name>.snapshots} so that it lives on the same volume, and named by its UTC time so that
+ * names sort chronologically across daylight saving changes. Restoring a snapshot is a pair of
+ * directory renames; if the second one fails, the first is undone.
+ * <p>
+ * Snapshots stay intact because the copy engine replaces files instead of writing into them;
+ * anything else that modifies destination files in place also modifies the latest snapshot.
+ *
+ * @author klee
+ */
+class SnapshotManager {
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotManager.class);
+
+    private static final String SNAPSHOTS_SUFFIX = ".snapshots";
+    private static final String TRASH_PREFIX = ".rollback-";
+    private static final String TIMESTAMP_FORMAT = "yyyyMMdd-HHmmss-SSS";
+    private static final TimeZone TIMESTAMP_ZONE = TimeZone.getTimeZone("UTC");
+
+    /**
+     * Snapshot {@code destination} by hard linking its files.
+     *
+     * @return the snapshot directory, or null if {@code destination} does not exist yet
+     */
+    Path take(final Path destination) throws IOException {
+        if (!Files.isDirectory(destination)) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        SimpleDateFormat timestamp = new SimpleDateFormat(TIMESTAMP_FORMAT);
+        timestamp.setTimeZone(TIMESTAMP_ZONE);
+        final Path snapshot = snapshotsDir(destination).resolve(timestamp.format(new Date()));
+        final Deque<Path> createdDirs = new ArrayDeque<>();
+
+        Files.walkFileTree(destination, new SimpleFileVisitor<Path>() {
+            private boolean linkable = true;
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Path target = snapshot.resolve(destination.relativize(dir).toString());
+                Files.createDirectories(target);
+                createdDirs.push(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path target = snapshot.resolve(destination.relativize(file).toString());
+                if (linkable && attrs.isRegularFile()) {
+                    try {
+                        Files.createLink(target, file);
+                        return FileVisitResult.CONTINUE;
+                    } catch (FileSystemException | UnsupportedOperationException e) {
+                        logger.debug("Unable to hard link " + file + ", copying remaining files into snapshot: " + e.getLocalizedMessage());
+                        linkable = false;
+                    }
+                }
+                Files.copy(file, target, LinkOption.NOFOLLOW_LINKS, StandardCopyOption.COPY_ATTRIBUTES);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                Files.setLastModifiedTime(snapshot.resolve(destination.relativize(createdDirs.pop()).toString()),
+                        Files.getLastModifiedTime(dir));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        logger.debug("Took snapshot " + snapshot + " of " + destination + " in " + (System.currentTimeMillis() - start) + " ms");
+        return snapshot;
+    }
+
+    /**
+     * Delete all but the newest {@code keep} snapshots of {@code destination}.
+     */
+    void prune(Path destination, int keep) throws IOException {
+        List<Path> snapshots = list(destination);
+        for (int i = Math.max(0, keep); i < snapshots.size(); i++) {
+            logger.debug("Pruning snapshot " + snapshots.get(i));
+            deleteTree(snapshots.get(i));
+        }
+    }
+
+    /**
+     * Replace {@code destination} by its newest snapshot. The replaced directory is deleted in the
+     * background once the snapshot is in place, or moved back if the snapshot cannot be restored.
+     * The caller must make sure that no copy or delete uses {@code destination}.
+     *
+     * @return the snapshot that was restored
+     */
+    Path rollback(Path destination) throws IOException {
+        List<Path> snapshots = list(destination);
+        if (snapshots.isEmpty()) {
+            throw new NoSuchFileException(destination.toString(), null, "no snapshot to roll back to");
+        }
+        Path latest = snapshots.get(0);
+
+        Path replaced = null;
+        if (Files.exists(destination, LinkOption.NOFOLLOW_LINKS)) {
+            replaced = snapshotsDir(destination).resolve(TRASH_PREFIX + latest.getFileName());
+            Files.move(destination, replaced, StandardCopyOption.ATOMIC_MOVE);
+        }
+        try {
+            Files.move(latest, destination, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (replaced != null) {
+                try {
+                    Files.move(replaced, destination, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException restoreError) {
+                    e.addSuppressed(restoreError);
+                    logger.warn("Unable to move " + replaced + " back to " + destination + ": " + restoreError.getLocalizedMessage());
+                }
+            }
+            throw e;
+        }
+
+        if (replaced != null) {
+            final Path trash = replaced;
+            WorkerPools.background().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        deleteTree(trash);
+                    } catch (IOException e) {
+                        logger.warn("Unable to delete rolled back directory " + trash + ": " + e.getLocalizedMessage());
+                    }
+                }
+            });
+        }
+        logger.debug("Rolled back " + destination + " to snapshot " + latest.getFileName());
+        return latest;
+    }
+
+    /**
+     * @return the snapshots of {@code destination}, newest first
+     */
+    List<Path> list(Path destination) throws IOException {
+        Path snapshotsDir = snapshotsDir(destination);
+        List<Path> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(snapshotsDir)) {
+            return snapshots;
+        }
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(snapshotsDir)) {
+            for (Path child : children) {
+                if (!child.getFileName().toString().startsWith(TRASH_PREFIX) && Files.isDirectory(child)) {
+                    snapshots.add(child);
+                }
+            }
+        }
+        // timestamps sort chronologically by name
+        Collections.sort(snapshots, Collections.reverseOrder());
+        return snapshots;
+    }
+
+    //================================================================================
+    // Private Methods
+    //================================================================================
+
+    private static Path snapshotsDir(Path destination) throws IOException {
+        Path dest = destination.toAbsolutePath().normalize();
+        if (dest.getParent() == null) {
+            throw new IOException("Cannot snapshot root directory " + dest);
+        }
+        return dest.getParent().resolve("." + dest.getFileName() + SNAPSHOTS_SUFFIX);
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+
+package com.serena.rlc.provider.filesystem.client;
+
+import com.serena.rlc.provider.filesystem.domain.CopyResult;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+
+/**
+ * Writes a copy to a destination that is given as a URI, such as {@code sftp://host/path}, instead
+ * of a path the RLC server can mount. A backend is opened for one destination by its
+ * {@link TransferBackends.Factory}, may hold connections until it is closed, and is used by one
+ * copy at a time.
+ *
+ * @author klee
+ */
+public interface TransferBackend extends Closeable {
+
+    /**
+     * Copy the directory tree {@code source} to {@code destination}, creating the destination
+     * directory and its parents if needed. Files that exist at the destination are overwritten.
+     *
+     * @param progress receives the files and bytes written, in any order and from any thread
+     * @throws IOException if the copy fails, or if {@code options} asks for something the backend
+     *                     cannot do
+     */
+    CopyResult copy(Path source, URI destination, CopyOptions options, Progress progress) throws IOException;
+}
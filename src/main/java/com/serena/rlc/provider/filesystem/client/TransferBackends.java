@@ -0,0 +1,113 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+
+package com.serena.rlc.provider.filesystem.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * The {@link TransferBackend}s by URI scheme. Backends can be registered by applications; the
+ * built-in ones are loaded by class name on first use, so that their libraries are only needed when
+ * a destination of their scheme is copied to. The SFTP backend is built with the {@code sftp}
+ * profile.
+ *
+ * @author klee
+ */
+public final class TransferBackends {
+    private static final Logger logger = LoggerFactory.getLogger(TransferBackends.class);
+
+    /**
+     * Opens a backend for one destination.
+     */
+    public interface Factory {
+        TransferBackend open(URI destination, TransferSettings settings) throws IOException;
+    }
+
+    // at least two characters, so that Windows drive letters are not taken for a scheme
+    private static final Pattern REMOTE = Pattern.compile("^[A-Za-z][A-Za-z0-9+.-]+://.*");
+    private static final Map<String, String> BUILT_IN =
+            Collections.singletonMap("sftp", "com.serena.rlc.provider.filesystem.client.SftpTransferBackend$Factory");
+
+    private static final ConcurrentMap<String, Factory> factories = new ConcurrentHashMap<>();
+
+    private TransferBackends() {
+
+    }
+
+    public static void register(String scheme, Factory factory) {
+        factories.put(scheme.toLowerCase(Locale.ROOT), factory);
+    }
+
+    /**
+     * @return true if {@code destination} is a URI with a scheme other than {@code file}
+     */
+    public static boolean isRemote(String destination) {
+        return destination != null && REMOTE.matcher(destination).matches()
+                && !destination.regionMatches(true, 0, "file:", 0, 5);
+    }
+
+    /**
+     * @throws IOException if {@code destination} is not a valid URI with a host and path
+     */
+    static URI parse(String destination) throws IOException {
+        try {
+            URI uri = new URI(destination).normalize();
+            if (uri.getHost() == null || uri.getPath() == null || uri.getPath().isEmpty()) {
+                throw new IOException("Destination " + destination + " needs a host and a path");
+            }
+            return uri;
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid destination " + destination + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return a backend for {@code destination}, which the caller must close
+     * @throws IOException if there is no backend for its scheme or it cannot be opened
+     */
+    static TransferBackend open(URI destination, TransferSettings settings) throws IOException {
+        String scheme = destination.getScheme().toLowerCase(Locale.ROOT);
+        Factory factory = factories.get(scheme);
+        if (factory == null && BUILT_IN.containsKey(scheme)) {
+            factory = load(scheme, BUILT_IN.get(scheme));
+        }
+        if (factory == null) {
+            throw new IOException("No transfer backend is available for " + scheme + " destinations"
+                    + (BUILT_IN.containsKey(scheme) ? ", the provider was built without it" : ""));
+        }
+        return factory.open(destination, settings != null ? settings : new TransferSettings());
+    }
+
+    //================================================================================
+    // Private Methods
+    //================================================================================
+
+    private static Factory load(String scheme, String className) {
+        try {
+            Factory factory = (Factory) Class.forName(className).getDeclaredConstructor().newInstance();
+            Factory registered = factories.putIfAbsent(scheme, factory);
+            return registered != null ? registered : factory;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            logger.debug("Unable to load the " + scheme + " transfer backend " + className + ": " + e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+
+package com.serena.rlc.provider.filesystem.client;
+
+/**
+ * Connection settings of the backends that copy to remote destinations. The user name may also be
+ * given in the destination URI, which takes precedence.
+ *
+ * @author klee
+ */
+public class TransferSettings {
+
+    private String user = System.getProperty("user.name");
+    private String password;
+    private String privateKeyFile;
+    private String knownHostsFile;
+    private int channels = 4;
+    private boolean compression = false;
+    private long connectTimeoutMillis = 30000;
+
+    public String getUser() {
+        return user;
+    }
+
+    public void setUser(String user) {
+        this.user = user;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    /**
+     * Private key to authenticate with, in OpenSSH or PEM format; tried before the password.
+     */
+    public String getPrivateKeyFile() {
+        return privateKeyFile;
+    }
+
+    public void setPrivateKeyFile(String privateKeyFile) {
+        this.privateKeyFile = privateKeyFile;
+    }
+
+    /**
+     * File with the keys of the hosts to trust, in OpenSSH {@code known_hosts} format; when not
+     * set, {@code ~/.ssh/known_hosts} is used. Hosts without a matching key are rejected.
+     */
+    public String getKnownHostsFile() {
+        return knownHostsFile;
+    }
+
+    public void setKnownHostsFile(String knownHostsFile) {
+        this.knownHostsFile = knownHostsFile;
+    }
+
+    /**
+     * Number of files transferred at the same time, each over its own channel of one connection.
+     */
+    public int getChannels() {
+        return channels;
+    }
+
+    public void setChannels(int channels) {
+        this.channels = Math.max(1, channels);
+    }
+
+    /**
+     * Compress the connection; worth it on slow links with compressible files.
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public long getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(long connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "user=" + user + ", password=" + (password != null && !password.isEmpty() ? "*******" : "none")
+                + (privateKeyFile != null ? ", privateKeyFile=" + privateKeyFile : "")
+                + (knownHostsFile != null ? ", knownHostsFile=" + knownHostsFile : "")
+                + ", channels=" + channels + ", compression=" + compression;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+import com.serena.rlc.provider.filesystem.domain.Manifest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parallel count of the files and bytes of a directory tree. Like the copies, the scan follows
+ * symbolic links, skipping those that lead back to an ancestor directory. Entries that disappear
+ * or cannot be read while scanning are skipped, so the result is an estimate for trees being
+ * modified.
+ *
+ * @author klee
+ */
+final class TreeSize {
+    private static final Logger logger = LoggerFactory.getLogger(TreeSize.class);
+
+    private TreeSize() {
+
+    }
+
+    /**
+     * @return {@code {files, bytes}} of the regular files below {@code root}
+     */
+    static long[] scan(Path root) {
+        return scan(root, null);
+    }
+
+    /**
+     * @param target directory whose files at the same relative paths are counted as well, or null
+     * @return {@code {files, bytes}} of the regular files below {@code root}, followed by
+     * {@code {files, bytes}} of the regular files below {@code target} at the same paths
+     */
+    static long[] scan(Path root, Path target) {
+        Object event = FilesystemEvents.beginDirectoryScan();
+        long[] size = WorkerPools.io().invoke(new ScanTask(root, target, root, null));
+        FilesystemEvents.endDirectoryScan(event, root, size[0], size[1]);
+        return size;
+    }
+
+    /**
+     * @return {@code {files, bytes}} of the regular files below {@code target} at the paths of
+     * {@code entries}
+     */
+    static long[] scanExisting(Path target, Collection<Manifest.Entry> entries) {
+        List<String> paths = new ArrayList<>(entries.size());
+        for (Manifest.Entry entry : entries) {
+            paths.add(entry.getPath());
+        }
+        return WorkerPools.io().invoke(new ExistingTask(target, paths, 0, paths.size()));
+    }
+
+    /**
+     * Set the totals of {@code progress} from a scan of {@code root} that runs without delaying
+     * the caller.
+     */
+    static void scanInBackground(final Path root, final Progress progress) {
+        WorkerPools.io().execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.currentTimeMillis();
+                long[] size = scan(root);
+                progress.setTotals(size[0], size[1]);
+                logger.debug("Scanned " + root + " (" + size[0] + " files, " + size[1] + " bytes) in " + (System.currentTimeMillis() - start) + " ms");
+            }
+        });
+    }
+
+    private static class ScanTask extends RecursiveTask<long[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path root;
+        private final Path target;
+        private final Path dir;
+        private final DirectoryChain parent;
+
+        ScanTask(Path root, Path target, Path dir, DirectoryChain parent) {
+            this.root = root;
+            this.target = target;
+            this.dir = dir;
+            this.parent = parent;
+        }
+
+        @Override
+        protected long[] compute() {
+            long[] size = new long[4];
+            List<ScanTask> subtasks = new ArrayList<>();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+                // a loop fails the copy itself, leave it out of the estimate
+                DirectoryChain chain = DirectoryChain.enter(parent, dir, Files.readAttributes(dir, BasicFileAttributes.class));
+                for (Path child : children) {
+                    try {
+                        BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class);
+                        if (attrs.isDirectory()) {
+                            ScanTask subtask = new ScanTask(root, target, child, chain);
+                            subtask.fork();
+                            subtasks.add(subtask);
+                        } else if (attrs.isRegularFile()) {
+                            size[0]++;
+                            size[1] += attrs.size();
+                            if (target != null) {
+                                long existing = regularFileSize(target.resolve(root.relativize(child).toString()));
+                                if (existing >= 0) {
+                                    size[2]++;
+                                    size[3] += existing;
+                                }
+                            }
+                        }
+                    } catch (IOException e) {
+                        // removed or unreadable, leave it out of the estimate
+                    }
+                }
+            } catch (IOException e) {
+                // removed or unreadable, leave it out of the estimate
+            }
+            for (ScanTask subtask : subtasks) {
+                long[] subSize = subtask.join();
+                for (int i = 0; i < size.length; i++) {
+                    size[i] += subSize[i];
+                }
+            }
+            return size;
+        }
+    }
+
+    private static class ExistingTask extends RecursiveTask<long[]> {
+
+        private static final long serialVersionUID = 1L;
+        private static final int THRESHOLD = 256;
+
+        private final Path target;
+        private final List<String> paths;
+        private final int from;
+        private final int to;
+
+        ExistingTask(Path target, List<String> paths, int from, int to) {
+            this.target = target;
+            this.paths = paths;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (to - from > THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                ExistingTask first = new ExistingTask(target, paths, from, middle);
+                first.fork();
+                long[] size = new ExistingTask(target, paths, middle, to).compute();
+                long[] firstSize = first.join();
+                size[0] += firstSize[0];
+                size[1] += firstSize[1];
+                return size;
+            }
+            long[] size = new long[2];
+            for (int i = from; i < to; i++) {
+                long existing = regularFileSize(target.resolve(paths.get(i)));
+                if (existing >= 0) {
+                    size[0]++;
+                    size[1] += existing;
+                }
+            }
+            return size;
+        }
+    }
+
+    /**
+     * @return the size of destination {@code file}, or -1 if it is not a regular file; links to
+     * directories above it are followed like the copy does, but a link in place of the file is
+     * replaced by the copy and frees nothing
+     */
+    private static long regularFileSize(Path file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            return attrs.isRegularFile() ? attrs.size() : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
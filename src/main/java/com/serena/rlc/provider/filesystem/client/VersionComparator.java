@@ -0,0 +1,135 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+import java.io.Serializable;
+import java.util.Comparator;
+import java.util.regex.Pattern;
+
+/**
+ * Orders deploy unit names naturally, comparing runs of digits by their numeric value and all other
+ * characters case-insensitively, so that {@code v1.9} sorts before {@code v1.10}. As in semantic
+ * versioning, a suffix starting with a letter right after a number, or with {@code -} and a letter,
+ * marks a pre-release that sorts before the bare version: {@code v2.0-RC1 < v2.0 < v2.0.1}.
+ *
+ * @author klee
+ */
+public class VersionComparator implements Comparator<String>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final VersionComparator INSTANCE = new VersionComparator();
+
+    private static final Pattern VERSION = Pattern.compile("\\d[A-Za-z0-9._+-]*");
+
+    @Override
+    public int compare(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            boolean preReleaseA = startsPreRelease(a, i);
+            if (preReleaseA != startsPreRelease(b, j)) {
+                return preReleaseA ? -1 : 1;
+            }
+            char ca = a.charAt(i);
+            char cb = b.charAt(j);
+            if (Character.isDigit(ca) && Character.isDigit(cb)) {
+                int endA = skipDigits(a, i);
+                int endB = skipDigits(b, j);
+                int result = compareNumbers(a, i, endA, b, j, endB);
+                if (result != 0) {
+                    return result;
+                }
+                i = endA;
+                j = endB;
+            } else {
+                int result = Character.compare(Character.toLowerCase(ca), Character.toLowerCase(cb));
+                if (result != 0) {
+                    return result;
+                }
+                i++;
+                j++;
+            }
+        }
+        if (i < a.length()) {
+            return startsPreRelease(a, i) ? -1 : 1;
+        }
+        if (j < b.length()) {
+            return startsPreRelease(b, j) ? 1 : -1;
+        }
+        return a.compareTo(b);
+    }
+
+    /**
+     * @return the part of {@code name} before its first digit, used to group versions of the same
+     * component, e.g. {@code app-a-} for {@code app-a-1.2.3}
+     */
+    public static String prefixOf(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.isDigit(name.charAt(i))) {
+                return name.substring(0, i);
+            }
+        }
+        return name;
+    }
+
+    /**
+     * @return true if {@code name} has a version, i.e. a digit after which there are only letters,
+     * digits and {@code . _ + -}, e.g. {@code app-a-1.2.3} or {@code v2.0-RC1} but not {@code logs}
+     */
+    public static boolean isVersion(String name) {
+        String prefix = prefixOf(name);
+        return prefix.length() < name.length() && VERSION.matcher(name.substring(prefix.length())).matches();
+    }
+
+    /**
+     * @return true if a pre-release suffix such as {@code -RC1}, {@code -SNAPSHOT} or {@code b2}
+     * starts at {@code index}, right after a number
+     */
+    private static boolean startsPreRelease(String s, int index) {
+        if (index == 0 || index >= s.length() || !Character.isDigit(s.charAt(index - 1))) {
+            return false;
+        }
+        char c = s.charAt(index);
+        if (c == '-') {
+            return index + 1 < s.length() && Character.isLetter(s.charAt(index + 1));
+        }
+        return Character.isLetter(c);
+    }
+
+    private static int skipDigits(String s, int start) {
+        int end = start;
+        while (end < s.length() && Character.isDigit(s.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    private static int compareNumbers(String a, int startA, int endA, String b, int startB, int endB) {
+        while (startA < endA - 1 && a.charAt(startA) == '0') {
+            startA++;
+        }
+        while (startB < endB - 1 && b.charAt(startB) == '0') {
+            startB++;
+        }
+        int lengthA = endA - startA;
+        int lengthB = endB - startB;
+        if (lengthA != lengthB) {
+            return lengthA < lengthB ? -1 : 1;
+        }
+        for (int k = 0; k < lengthA; k++) {
+            int result = Character.compare(a.charAt(startA + k), b.charAt(startB + k));
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+}
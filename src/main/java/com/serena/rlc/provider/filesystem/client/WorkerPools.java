@@ -0,0 +1,119 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Thread pools shared by the client's parallel tree walks.
+ *
+ * @author klee
+ */
+final class WorkerPools {
+    private static final Logger logger = LoggerFactory.getLogger(WorkerPools.class);
+
+    /**
+     * Tree walks are dominated by blocking file system calls, so the pool is sized above the number
+     * of processors.
+     */
+    static final int IO_PARALLELISM = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final ForkJoinPool ioPool = new ForkJoinPool(IO_PARALLELISM);
+    private static final ExecutorService backgroundExecutor =
+            Executors.newSingleThreadExecutor(new WorkerThreadFactory("filesystem-background", Thread.MIN_PRIORITY));
+    private static final ExecutorService processExecutor =
+            Executors.newCachedThreadPool(new WorkerThreadFactory("filesystem-process", Thread.NORM_PRIORITY));
+
+    private static final boolean virtualThreads;
+    private static final ExecutorService blockingExecutor;
+
+    static {
+        ExecutorService executor = null;
+        if (Boolean.parseBoolean(System.getProperty("rlc.filesystem.virtualThreads", "true"))) {
+            executor = newVirtualThreadPerTaskExecutor();
+        }
+        virtualThreads = executor != null;
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(IO_PARALLELISM, new WorkerThreadFactory("filesystem-io", Thread.NORM_PRIORITY));
+        }
+        blockingExecutor = executor;
+    }
+
+    /**
+     * Number of blocking batches an operation may have in flight: bounded by the platform pool, or
+     * by open files and disk queue depth when every batch gets its own virtual thread.
+     */
+    static final int BLOCKING_PARALLELISM = Integer.getInteger("rlc.filesystem.ioParallelism",
+            virtualThreads ? Math.max(64, IO_PARALLELISM * 8) : IO_PARALLELISM);
+
+    private WorkerPools() {
+
+    }
+
+    static ForkJoinPool io() {
+        return ioPool;
+    }
+
+    /**
+     * @return the executor for batches of blocking file operations: a virtual thread per task on
+     * Java 21 and later, otherwise a fixed pool of {@link #IO_PARALLELISM} platform threads. Tasks
+     * must not wait for other tasks of this executor.
+     */
+    static ExecutorService blocking() {
+        return blockingExecutor;
+    }
+
+    static boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * @return a single low priority thread for housekeeping that nobody waits for
+     */
+    static ExecutorService background() {
+        return backgroundExecutor;
+    }
+
+    /**
+     * @return a thread per task for reading the output of external processes, which blocks for as
+     * long as the process runs and so must never wait for a slot behind file operations
+     */
+    static ExecutorService process() {
+        return processExecutor;
+    }
+
+    //================================================================================
+    // Private Methods
+    //================================================================================
+
+    /**
+     * Looked up reflectively so that the provider still compiles for and runs on Java 8.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService executor = (ExecutorService) factory.invoke(null);
+            logger.debug("Running blocking file operations on virtual threads");
+            return executor;
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // e.g. a preview API on Java 19 and 20
+            logger.debug("Virtual threads are not available, using platform threads: " + e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads for the provider's background and worker pools so that they never
+ * keep the RLC server from shutting down.
+ *
+ * @author klee
+ */
+class WorkerThreadFactory implements ThreadFactory {
+
+    private final String namePrefix;
+    private final int priority;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    WorkerThreadFactory(String namePrefix, int priority) {
+        this.namePrefix = namePrefix;
+        this.priority = priority;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, namePrefix + "-" + counter.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setPriority(priority);
+        return thread;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.domain;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of a directory copy.
+ *
+ * @author klee
+ */
+public class CopyResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long filesCopied;
+    private long filesLinked;
+    private long filesUnchanged;
+    private long entriesDeleted;
+    private long bytesCopied;
+    private long elapsedMillis;
+    private long syncMillis;
+    private String snapshot;
+
+    public CopyResult() {
+
+    }
+
+    public long getFilesCopied() {
+        return filesCopied;
+    }
+
+    public long getFilesLinked() {
+        return filesLinked;
+    }
+
+    public long getFilesUnchanged() {
+        return filesUnchanged;
+    }
+
+    public long getEntriesDeleted() {
+        return entriesDeleted;
+    }
+
+    public long getBytesCopied() {
+        return bytesCopied;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return the time spent syncing files and directories to stable storage; per-file syncs run
+     * on the copy workers and are summed over all of them, so this can exceed the elapsed time
+     */
+    public long getSyncMillis() {
+        return syncMillis;
+    }
+
+    /**
+     * @return the snapshot taken of the destination before the copy, if any
+     */
+    public String getSnapshot() {
+        return snapshot;
+    }
+
+    public void setFilesCopied(long filesCopied) {
+        this.filesCopied = filesCopied;
+    }
+
+    public void setFilesLinked(long filesLinked) {
+        this.filesLinked = filesLinked;
+    }
+
+    public void setFilesUnchanged(long filesUnchanged) {
+        this.filesUnchanged = filesUnchanged;
+    }
+
+    public void setEntriesDeleted(long entriesDeleted) {
+        this.entriesDeleted = entriesDeleted;
+    }
+
+    public void setBytesCopied(long bytesCopied) {
+        this.bytesCopied = bytesCopied;
+    }
+
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public void setSyncMillis(long syncMillis) {
+        this.syncMillis = syncMillis;
+    }
+
+    public void setSnapshot(String snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append("Copied ").append(filesCopied).append(" files (").append(bytesCopied).append(" bytes)");
+        if (filesLinked > 0) {
+            summary.append(", linked ").append(filesLinked).append(" files");
+        }
+        if (filesUnchanged > 0) {
+            summary.append(", skipped ").append(filesUnchanged).append(" unchanged files");
+        }
+        if (entriesDeleted > 0) {
+            summary.append(", deleted ").append(entriesDeleted).append(" extraneous entries");
+        }
+        summary.append(" in ").append(elapsedMillis).append(" ms");
+        if (syncMillis > 0) {
+            summary.append(" (").append(syncMillis).append(" ms syncing)");
+        }
+        if (snapshot != null) {
+            summary.append("; previous content saved as snapshot ").append(snapshot);
+        }
+        return summary.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getSummary();
+    }
+}
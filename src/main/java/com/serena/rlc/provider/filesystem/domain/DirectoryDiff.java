@@ -0,0 +1,134 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.domain;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Files added, removed or modified between two deploy unit directories, ordered by path.
+ *
+ * @author klee
+ */
+public class DirectoryDiff implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum ChangeType {
+        ADDED, REMOVED, MODIFIED
+    }
+
+    private String fromDir;
+    private String toDir;
+    private final List<Change> changes = new ArrayList<>();
+
+    public DirectoryDiff() {
+
+    }
+
+    public DirectoryDiff(String fromDir, String toDir) {
+        this.fromDir = fromDir;
+        this.toDir = toDir;
+    }
+
+    public String getFromDir() {
+        return fromDir;
+    }
+
+    public String getToDir() {
+        return toDir;
+    }
+
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    public void setFromDir(String fromDir) {
+        this.fromDir = fromDir;
+    }
+
+    public void setToDir(String toDir) {
+        this.toDir = toDir;
+    }
+
+    public void addChange(Change change) {
+        changes.add(change);
+    }
+
+    public long getSizeDelta() {
+        long delta = 0;
+        for (Change change : changes) {
+            delta += change.getSizeDelta();
+        }
+        return delta;
+    }
+
+    /**
+     * A single changed file; the size of the missing side of an added or removed file is zero.
+     */
+    public static class Change implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private String path;
+        private ChangeType type;
+        private long oldSize;
+        private long newSize;
+
+        public Change() {
+
+        }
+
+        public Change(String path, ChangeType type, long oldSize, long newSize) {
+            this.path = path;
+            this.type = type;
+            this.oldSize = oldSize;
+            this.newSize = newSize;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public ChangeType getType() {
+            return type;
+        }
+
+        public long getOldSize() {
+            return oldSize;
+        }
+
+        public long getNewSize() {
+            return newSize;
+        }
+
+        public long getSizeDelta() {
+            return newSize - oldSize;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public void setType(ChangeType type) {
+            this.type = type;
+        }
+
+        public void setOldSize(long oldSize) {
+            this.oldSize = oldSize;
+        }
+
+        public void setNewSize(long newSize) {
+            this.newSize = newSize;
+        }
+    }
+
+}
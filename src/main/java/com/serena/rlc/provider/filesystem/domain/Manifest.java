@@ -0,0 +1,136 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.domain;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Listing of every regular file below a deploy unit directory, keyed by the path relative to the
+ * unit root, together with its size, modification time and content hash.
+ *
+ * @author klee
+ */
+public class Manifest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String root;
+    private Long rootModified;
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    public Manifest() {
+
+    }
+
+    public Manifest(String root, Long rootModified) {
+        this.root = root;
+        this.rootModified = rootModified;
+    }
+
+    public String getRoot() {
+        return root;
+    }
+
+    public Long getRootModified() {
+        return rootModified;
+    }
+
+    public void setRoot(String root) {
+        this.root = root;
+    }
+
+    public void setRootModified(Long rootModified) {
+        this.rootModified = rootModified;
+    }
+
+    public void addEntry(Entry entry) {
+        entries.put(entry.getPath(), entry);
+    }
+
+    public Entry getEntry(String path) {
+        return entries.get(path);
+    }
+
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getTotalSize() {
+        long total = 0;
+        for (Entry entry : entries.values()) {
+            total += entry.getSize();
+        }
+        return total;
+    }
+
+    /**
+     * A single file of the manifest; the path always uses '/' as separator.
+     */
+    public static class Entry implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private String path;
+        private long size;
+        private long modified;
+        private String hash;
+
+        public Entry() {
+
+        }
+
+        public Entry(String path, long size, long modified, String hash) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getModified() {
+            return modified;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        public void setModified(long modified) {
+            this.modified = modified;
+        }
+
+        public void setHash(String hash) {
+            this.hash = hash;
+        }
+    }
+
+}
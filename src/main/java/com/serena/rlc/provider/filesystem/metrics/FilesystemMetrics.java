@@ -0,0 +1,111 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the {@link OperationMetrics} of the providers and the filesystem client. Metrics are
+ * created on first use and exported to the platform MBean server.
+ *
+ * @author klee
+ */
+public final class FilesystemMetrics {
+    private static final Logger logger = LoggerFactory.getLogger(FilesystemMetrics.class);
+
+    public static final String JMX_DOMAIN = "com.serena.rlc.provider.filesystem";
+    public static final String CLIENT = "client";
+
+    private static final ConcurrentMap<String, OperationMetrics> metrics = new ConcurrentHashMap<>();
+
+    private FilesystemMetrics() {
+
+    }
+
+    /**
+     * @return the metrics of {@code operation} of {@code provider}, created and exported over JMX
+     * on first use
+     */
+    public static OperationMetrics get(String provider, String operation) {
+        String providerName = provider != null && !provider.isEmpty() ? provider : "unnamed";
+        String key = providerName + '/' + operation;
+        OperationMetrics existing = metrics.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        OperationMetrics created = new OperationMetrics(providerName, operation);
+        existing = metrics.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+        register(created);
+        return created;
+    }
+
+    /**
+     * @return the metrics of a {@link com.serena.rlc.provider.filesystem.client.FilesystemClient}
+     * operation
+     */
+    public static OperationMetrics client(String operation) {
+        return get(CLIENT, operation);
+    }
+
+    public static List<OperationMetrics> getAll() {
+        return new ArrayList<>(metrics.values());
+    }
+
+    /**
+     * @return a one line summary of a single execution, e.g. {@code copyDir took 812 ms (48.2 MB/s)}
+     */
+    public static String summary(String operation, long nanos, long bytes) {
+        StringBuilder summary = new StringBuilder();
+        summary.append(operation).append(" took ").append(Math.round(millis(nanos))).append(" ms");
+        if (bytes > 0) {
+            summary.append(String.format(" (%.1f MB/s)", throughput(bytes, nanos)));
+        }
+        return summary.toString();
+    }
+
+    //================================================================================
+    // Private Methods
+    //================================================================================
+
+    static double millis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    static double throughput(long bytes, long nanos) {
+        return nanos == 0 ? 0 : (bytes / 1048576.0) / (nanos / 1000000000.0);
+    }
+
+    private static void register(OperationMetrics operationMetrics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":type=Metrics,provider=" + ObjectName.quote(operationMetrics.getProvider())
+                    + ",operation=" + ObjectName.quote(operationMetrics.getOperation()));
+            if (!server.isRegistered(name)) {
+                server.registerMBean(operationMetrics, name);
+            }
+        } catch (JMException | SecurityException e) {
+            logger.debug("Unable to export metrics " + operationMetrics.getProvider() + "/" + operationMetrics.getOperation()
+                    + " over JMX: " + e.getLocalizedMessage());
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histogram of one operation of one provider. An operation is recorded once
+ * when it ends, so the cost does not depend on the number of files it touches.
+ *
+ * @author klee
+ */
+public class OperationMetrics implements OperationMetricsMXBean {
+
+    private final String provider;
+    private final String operation;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    OperationMetrics(String provider, String operation) {
+        this.provider = provider;
+        this.operation = operation;
+    }
+
+    /**
+     * Record a successful operation.
+     */
+    public void record(long nanos, long fileCount, long byteCount) {
+        count.increment();
+        totalNanos.add(nanos);
+        latency.record(nanos);
+        if (fileCount > 0) {
+            files.add(fileCount);
+        }
+        if (byteCount > 0) {
+            bytes.add(byteCount);
+        }
+    }
+
+    /**
+     * Record a failed operation.
+     */
+    public void recordError(long nanos) {
+        count.increment();
+        errors.increment();
+        totalNanos.add(nanos);
+        latency.record(nanos);
+    }
+
+    /**
+     * Record time spent waiting before the operation could start, e.g. for a deploy unit lock.
+     */
+    public void recordQueueWait(long nanos) {
+        queueWaitNanos.add(nanos);
+    }
+
+    @Override
+    public String getProvider() {
+        return provider;
+    }
+
+    @Override
+    public String getOperation() {
+        return operation;
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getFiles() {
+        return files.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public double getTotalMillis() {
+        return FilesystemMetrics.millis(totalNanos.sum());
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : FilesystemMetrics.millis(totalNanos.sum()) / n;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return FilesystemMetrics.millis(latency.percentile(0.50));
+    }
+
+    @Override
+    public double getP99Millis() {
+        return FilesystemMetrics.millis(latency.percentile(0.99));
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return FilesystemMetrics.millis(latency.max());
+    }
+
+    @Override
+    public double getQueueWaitMillis() {
+        return FilesystemMetrics.millis(queueWaitNanos.sum());
+    }
+
+    @Override
+    public double getThroughputMBPerSecond() {
+        return FilesystemMetrics.throughput(bytes.sum(), totalNanos.sum());
+    }
+
+    @Override
+    public void reset() {
+        count.reset();
+        errors.reset();
+        files.reset();
+        bytes.reset();
+        totalNanos.reset();
+        queueWaitNanos.reset();
+        latency.reset();
+    }
+
+    @Override
+    public String toString() {
+        return provider + "/" + operation + ": count=" + getCount() + ", errors=" + getErrorCount() + ", files=" + getFiles()
+                + ", bytes=" + getBytes() + ", p50=" + getP50Millis() + " ms, p99=" + getP99Millis() + " ms";
+    }
+}
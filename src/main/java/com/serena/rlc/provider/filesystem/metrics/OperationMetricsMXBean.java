@@ -0,0 +1,48 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.metrics;
+
+/**
+ * JMX view of the metrics of one operation, registered as
+ * {@code com.serena.rlc.provider.filesystem:type=Metrics,provider=<provider>,operation=<operation>}.
+ * Latency percentiles are the upper bounds of power-of-two microsecond buckets.
+ *
+ * @author klee
+ */
+public interface OperationMetricsMXBean {
+
+    String getProvider();
+
+    String getOperation();
+
+    long getCount();
+
+    long getErrorCount();
+
+    long getFiles();
+
+    long getBytes();
+
+    double getTotalMillis();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+
+    double getQueueWaitMillis();
+
+    double getThroughputMBPerSecond();
+
+    void reset();
+}
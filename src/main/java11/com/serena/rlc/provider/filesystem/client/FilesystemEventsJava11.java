@@ -0,0 +1,248 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+package com.serena.rlc.provider.filesystem.client;
+
+import jdk.jfr.*;
+
+import java.nio.file.Path;
+
+/**
+ * Java Flight Recorder events of the filesystem client, Java 11 and later version. Events are only
+ * recorded while a recording enables them; the defaults record waits of 10 ms or more and every
+ * other event, with file copies limited to files of at least {@link #COPY_THRESHOLD} bytes.
+ * <p>
+ * The file is named after the Java version so that the build can tell it from the Java 8 version
+ * in the same package; see the {@code java11-overlay} profile.
+ *
+ * @author klee
+ */
+final class FilesystemEvents {
+
+    static final long COPY_THRESHOLD = Long.getLong("rlc.filesystem.jfr.copyThreshold", 1024 * 1024);
+
+    private static final EventType DIRECTORY_SCAN = EventType.getEventType(DirectoryScanEvent.class);
+    private static final EventType FILE_COPY = EventType.getEventType(FileCopyEvent.class);
+    private static final EventType DELETE_BATCH = EventType.getEventType(DeleteBatchEvent.class);
+    private static final EventType PROCESS_START = EventType.getEventType(ProcessStartEvent.class);
+    private static final EventType PROCESS_EXIT = EventType.getEventType(ProcessExitEvent.class);
+    private static final EventType THROTTLE_WAIT = EventType.getEventType(ThrottleWaitEvent.class);
+    private static final EventType QUEUE_WAIT = EventType.getEventType(QueueWaitEvent.class);
+
+    private FilesystemEvents() {
+
+    }
+
+    static Object beginDirectoryScan() {
+        return DIRECTORY_SCAN.isEnabled() ? begin(new DirectoryScanEvent()) : null;
+    }
+
+    static void endDirectoryScan(Object event, Path dir, long files, long bytes) {
+        if (event != null) {
+            DirectoryScanEvent scan = (DirectoryScanEvent) event;
+            scan.end();
+            if (scan.shouldCommit()) {
+                scan.path = dir.toString();
+                scan.files = files;
+                scan.bytes = bytes;
+                scan.commit();
+            }
+        }
+    }
+
+    static Object beginFileCopy() {
+        return FILE_COPY.isEnabled() ? begin(new FileCopyEvent()) : null;
+    }
+
+    static void endFileCopy(Object event, Path source, Path destination, long bytes) {
+        if (event != null && bytes >= COPY_THRESHOLD) {
+            FileCopyEvent copy = (FileCopyEvent) event;
+            copy.end();
+            if (copy.shouldCommit()) {
+                copy.source = source.toString();
+                copy.destination = destination.toString();
+                copy.bytes = bytes;
+                copy.commit();
+            }
+        }
+    }
+
+    static Object beginDeleteBatch() {
+        return DELETE_BATCH.isEnabled() ? begin(new DeleteBatchEvent()) : null;
+    }
+
+    static void endDeleteBatch(Object event, Path dir, long entries, long bytes) {
+        if (event != null) {
+            DeleteBatchEvent delete = (DeleteBatchEvent) event;
+            delete.end();
+            if (delete.shouldCommit()) {
+                delete.path = dir.toString();
+                delete.entries = entries;
+                delete.bytes = bytes;
+                delete.commit();
+            }
+        }
+    }
+
+    static void processStart(String command, Path dir) {
+        if (PROCESS_START.isEnabled()) {
+            ProcessStartEvent start = new ProcessStartEvent();
+            start.command = command;
+            start.directory = dir.toString();
+            start.commit();
+        }
+    }
+
+    static Object beginProcess() {
+        return PROCESS_EXIT.isEnabled() ? begin(new ProcessExitEvent()) : null;
+    }
+
+    static void endProcess(Object event, String command, Path dir, int exitCode) {
+        if (event != null) {
+            ProcessExitEvent exit = (ProcessExitEvent) event;
+            exit.end();
+            if (exit.shouldCommit()) {
+                exit.command = command;
+                exit.directory = dir.toString();
+                exit.exitCode = exitCode;
+                exit.commit();
+            }
+        }
+    }
+
+    static Object beginThrottleWait() {
+        return THROTTLE_WAIT.isEnabled() ? begin(new ThrottleWaitEvent()) : null;
+    }
+
+    static void endThrottleWait(Object event, String throttle, Path path) {
+        if (event != null) {
+            ThrottleWaitEvent wait = (ThrottleWaitEvent) event;
+            wait.end();
+            if (wait.shouldCommit()) {
+                wait.throttle = throttle;
+                wait.path = path.toString();
+                wait.commit();
+            }
+        }
+    }
+
+    static Object beginQueueWait() {
+        return QUEUE_WAIT.isEnabled() ? begin(new QueueWaitEvent()) : null;
+    }
+
+    static void endQueueWait(Object event, String queue, Path path) {
+        if (event != null) {
+            QueueWaitEvent wait = (QueueWaitEvent) event;
+            wait.end();
+            if (wait.shouldCommit()) {
+                wait.queue = queue;
+                wait.path = path.toString();
+                wait.commit();
+            }
+        }
+    }
+
+    //================================================================================
+    // Private Methods
+    //================================================================================
+
+    private static Event begin(Event event) {
+        event.begin();
+        return event;
+    }
+
+    @Name("com.serena.rlc.provider.filesystem.DirectoryScan")
+    @Label("Directory Scan")
+    @Description("Listing, hashing or sizing of a directory tree")
+    @Category({"RLC", "Filesystem"})
+    static class DirectoryScanEvent extends Event {
+        @Label("Path")
+        String path;
+        @Label("Files")
+        long files;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("com.serena.rlc.provider.filesystem.FileCopy")
+    @Label("File Copy")
+    @Description("Copy of a single file of at least rlc.filesystem.jfr.copyThreshold bytes")
+    @Category({"RLC", "Filesystem"})
+    static class FileCopyEvent extends Event {
+        @Label("Source")
+        String source;
+        @Label("Destination")
+        String destination;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("com.serena.rlc.provider.filesystem.DeleteBatch")
+    @Label("Delete Batch")
+    @Description("Deletion of a directory tree")
+    @Category({"RLC", "Filesystem"})
+    static class DeleteBatchEvent extends Event {
+        @Label("Path")
+        String path;
+        @Label("Entries")
+        long entries;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("com.serena.rlc.provider.filesystem.ProcessStart")
+    @Label("Process Start")
+    @Category({"RLC", "Filesystem"})
+    static class ProcessStartEvent extends Event {
+        @Label("Command")
+        String command;
+        @Label("Directory")
+        String directory;
+    }
+
+    @Name("com.serena.rlc.provider.filesystem.ProcessExit")
+    @Label("Process Exit")
+    @Description("Script run from start to exit")
+    @Category({"RLC", "Filesystem"})
+    static class ProcessExitEvent extends Event {
+        @Label("Command")
+        String command;
+        @Label("Directory")
+        String directory;
+        @Label("Exit Code")
+        int exitCode;
+    }
+
+    @Name("com.serena.rlc.provider.filesystem.ThrottleWait")
+    @Label("Throttle Wait")
+    @Description("Time a worker was held back by a rate limit")
+    @Category({"RLC", "Filesystem"})
+    @Threshold("10 ms")
+    static class ThrottleWaitEvent extends Event {
+        @Label("Throttle")
+        String throttle;
+        @Label("Path")
+        String path;
+    }
+
+    @Name("com.serena.rlc.provider.filesystem.QueueWait")
+    @Label("Queue Wait")
+    @Description("Time an operation waited for a lock or a worker thread")
+    @Category({"RLC", "Filesystem"})
+    @Threshold("10 ms")
+    static class QueueWaitEvent extends Event {
+        @Label("Queue")
+        String queue;
+        @Label("Path")
+        String path;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+
+package com.serena.rlc.provider.filesystem.benchmark;
+
+import com.serena.rlc.provider.filesystem.client.CopyOptions;
+import com.serena.rlc.provider.filesystem.client.FilesystemClient;
+import com.serena.rlc.provider.filesystem.client.TransferSettings;
+import com.serena.rlc.provider.filesystem.domain.CopyResult;
+import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.compression.BuiltinCompressions;
+import org.apache.sshd.common.compression.Compression;
+import org.apache.sshd.common.config.keys.PublicKeyEntry;
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.auth.password.PasswordAuthenticator;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.session.ServerSession;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies a generated deploy unit to an embedded SSH server through the SFTP transfer backend, so
+ * that the backend can be exercised and measured without any external host. The server runs on
+ * the loopback interface with a password, a generated host key and its root in a temporary
+ * directory; each copy is checked file by file against the source, and its throughput reported.
+ * <p>
+ * Run with {@code mvn -Pbenchmark,sftp,sftp-harness test-compile exec:exec@sftp-harness -Dsftp.args="..."},
+ * where the arguments are any of (defaults shown; {@code channels} may list several counts):
+ * <pre>
+ * shape=SMALL_FILES channels=1,4 compression=false iterations=3
+ * </pre>
+ *
+ * @author klee
+ */
+public class SftpTransferHarness {
+
+    private static final String USER = "deploy";
+    private static final String PASSWORD = "harness";
+
+    private final TreeShape shape;
+    private final int[] channelCounts;
+    private final boolean compression;
+    private final int iterations;
+
+    private Path workDir;
+    private SshServer server;
+
+    public SftpTransferHarness(Map<String, String> options) {
+        this.shape = TreeShape.valueOf(option(options, "shape", TreeShape.SMALL_FILES.name()));
+        String[] counts = option(options, "channels", "1,4").split(",");
+        this.channelCounts = new int[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            channelCounts[i] = Integer.parseInt(counts[i].trim());
+        }
+        this.compression = Boolean.parseBoolean(option(options, "compression", "false"));
+        this.iterations = Integer.parseInt(option(options, "iterations", "3"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq).replaceFirst("^-+", ""), arg.substring(eq + 1));
+            }
+        }
+        boolean passed = new SftpTransferHarness(options).run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * @return true if every copy matched its source
+     */
+    public boolean run() throws Exception {
+        workDir = Files.createTempDirectory("rlc-sftp-harness");
+        try {
+            Path unit = workDir.resolve("base").resolve("v1.0");
+            System.out.println("Generating a " + shape + " deploy unit in " + unit + "...");
+            DeployUnitTrees.create(unit, shape);
+            Path remoteRoot = Files.createDirectories(workDir.resolve("remote"));
+            Path knownHosts = startServer(remoteRoot);
+            System.out.println("SSH server listening on 127.0.0.1:" + server.getPort() + ", compression " + compression);
+
+            FilesystemClient client = new FilesystemClient();
+            boolean passed = true;
+            for (int channels : channelCounts) {
+                TransferSettings settings = new TransferSettings();
+                settings.setUser(USER);
+                settings.setPassword(PASSWORD);
+                settings.setKnownHostsFile(knownHosts.toString());
+                settings.setChannels(channels);
+                settings.setCompression(compression);
+                CopyOptions options = new CopyOptions(true);
+                options.setTransferSettings(settings);
+
+                for (int i = 0; i < iterations; i++) {
+                    String target = "deploy/c" + channels + "-" + i;
+                    CopyResult result = client.localCopy(unit.toString(), "sftp://127.0.0.1:" + server.getPort() + "/" + target, options);
+                    boolean matches = sameTree(unit, remoteRoot.resolve(target));
+                    passed &= matches;
+                    double seconds = Math.max(1, result.getElapsedMillis()) / 1000.0;
+                    System.out.println(String.format("channels=%d run %d: %d files, %.1f MB in %d ms (%.1f MB/s, %.0f files/s) %s",
+                            channels, i + 1, result.getFilesCopied(), result.getBytesCopied() / 1e6, result.getElapsedMillis(),
+                            result.getBytesCopied() / 1e6 / seconds, result.getFilesCopied() / seconds, matches ? "OK" : "MISMATCH"));
+                }
+            }
+            return passed;
+        } finally {
+            if (server != null) {
+                server.stop(true);
+            }
+            DeployUnitTrees.delete(workDir);
+        }
+    }
+
+    //================================================================================
+    // Private Methods
+    //================================================================================
+
+    /**
+     * Start the server with its file system rooted at {@code root}.
+     *
+     * @return a known_hosts file that trusts the server
+     */
+    private Path startServer(Path root) throws Exception {
+        SimpleGeneratorHostKeyProvider hostKeys = new SimpleGeneratorHostKeyProvider(workDir.resolve("host.key"));
+        server = SshServer.setUpDefaultServer();
+        server.setHost("127.0.0.1");
+        server.setPort(0);
+        server.setKeyPairProvider(hostKeys);
+        server.setPasswordAuthenticator(new PasswordAuthenticator() {
+            @Override
+            public boolean authenticate(String username, String password, ServerSession session) {
+                return USER.equals(username) && PASSWORD.equals(password);
+            }
+        });
+        server.setSubsystemFactories(Collections.singletonList(new SftpSubsystemFactory()));
+        server.setFileSystemFactory(new VirtualFileSystemFactory(root));
+        if (compression) {
+            server.setCompressionFactories(Arrays.<NamedFactory<Compression>>asList(
+                    BuiltinCompressions.delayedZlib, BuiltinCompressions.zlib, BuiltinCompressions.none));
+        }
+        server.start();
+
+        KeyPair hostKey = hostKeys.loadKeys(null).iterator().next();
+        Path knownHosts = workDir.resolve("known_hosts");
+        Files.write(knownHosts, ("[127.0.0.1]:" + server.getPort() + " " + PublicKeyEntry.toString(hostKey.getPublic()) + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        return knownHosts;
+    }
+
+    private static boolean sameTree(final Path source, final Path copy) throws IOException {
+        final boolean[] same = {true};
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path copied = copy.resolve(source.relativize(file));
+                if (!Files.isRegularFile(copied) || !Arrays.equals(Files.readAllBytes(file), Files.readAllBytes(copied))
+                        // SFTP v3 carries times in whole seconds
+                        || attrs.lastModifiedTime().to(TimeUnit.SECONDS) != Files.getLastModifiedTime(copied).to(TimeUnit.SECONDS)) {
+                    System.out.println("Copy of " + file + " differs");
+                    same[0] = false;
+                    return FileVisitResult.TERMINATE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return same[0];
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+
+package com.serena.rlc.provider.filesystem.client;
+
+import com.serena.rlc.provider.filesystem.domain.CopyResult;
+import org.apache.sshd.client.SshClient;
+import org.apache.sshd.client.keyverifier.DefaultKnownHostsServerKeyVerifier;
+import org.apache.sshd.client.keyverifier.KnownHostsServerKeyVerifier;
+import org.apache.sshd.client.keyverifier.RejectAllServerKeyVerifier;
+import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.compression.BuiltinCompressions;
+import org.apache.sshd.common.compression.Compression;
+import org.apache.sshd.common.keyprovider.FileKeyPairProvider;
+import org.apache.sshd.sftp.client.SftpClient;
+import org.apache.sshd.sftp.client.SftpClientFactory;
+import org.apache.sshd.sftp.common.SftpConstants;
+import org.apache.sshd.sftp.common.SftpException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.KeyPair;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies to {@code sftp://[user@]host[:port]/path} destinations over one SSH connection, with
+ * {@link TransferSettings#getChannels()} SFTP channels multiplexed on it. The tree is walked on
+ * the calling thread, which creates the remote directories, while batches of files are uploaded in
+ * parallel, each batch over a channel taken from the pool. Every file is written with pipelined
+ * requests: up to a window of write requests is in flight before their replies are read, so a
+ * channel is not limited to one buffer per round trip. The connection is optionally compressed
+ * with zlib.
+ * <p>
+ * Host keys are checked against a {@code known_hosts} file and unknown hosts are rejected. Files
+ * are overwritten in place; mirroring, snapshots and syncs of the destination need access to the
+ * remote file system and are not supported.
+ *
+ * @author klee
+ */
+final class SftpTransferBackend implements TransferBackend {
+    private static final Logger logger = LoggerFactory.getLogger(SftpTransferBackend.class);
+
+    private static final int DEFAULT_PORT = 22;
+    private static final int FILE_BATCH_SIZE = 16;
+    /**
+     * Payload of each write request; the size OpenSSH's own client uses, which every server accepts.
+     */
+    private static final int WRITE_BUFFER_SIZE = 32 * 1024;
+
+    /**
+     * Loaded by {@link TransferBackends} for {@code sftp} destinations.
+     */
+    public static class Factory implements TransferBackends.Factory {
+        @Override
+        public TransferBackend open(URI destination, TransferSettings settings) throws IOException {
+            return new SftpTransferBackend(destination, settings);
+        }
+    }
+
+    private final String target;
+    private final SshClient client;
+    private final ClientSession session;
+    private final BlockingQueue<SftpClient> channels;
+    private final AtomicLong filesCopied = new AtomicLong();
+    private final AtomicLong bytesCopied = new AtomicLong();
+
+    private SftpTransferBackend(URI destination, TransferSettings settings) throws IOException {
+        String user = destination.getUserInfo() != null ? destination.getUserInfo().split(":", 2)[0] : settings.getUser();
+        int port = destination.getPort() > 0 ? destination.getPort() : DEFAULT_PORT;
+        this.target = user + "@" + destination.getHost() + ":" + port;
+
+        client = SshClient.setUpDefaultClient();
+        client.setServerKeyVerifier(settings.getKnownHostsFile() != null
+                ? new KnownHostsServerKeyVerifier(RejectAllServerKeyVerifier.INSTANCE, Paths.get(settings.getKnownHostsFile()))
+                : new DefaultKnownHostsServerKeyVerifier(RejectAllServerKeyVerifier.INSTANCE, true));
+        if (settings.isCompression()) {
+            // OpenSSH servers only offer the delayed variant, which starts after authentication
+            client.setCompressionFactories(Arrays.<NamedFactory<Compression>>asList(
+                    BuiltinCompressions.delayedZlib, BuiltinCompressions.zlib, BuiltinCompressions.none));
+        }
+        client.start();
+
+        ClientSession opened = null;
+        List<SftpClient> created = new ArrayList<>();
+        try {
+            long start = System.currentTimeMillis();
+            opened = client.connect(user, destination.getHost(), port).verify(settings.getConnectTimeoutMillis()).getSession();
+            if (settings.getPrivateKeyFile() != null) {
+                for (KeyPair key : new FileKeyPairProvider(Paths.get(settings.getPrivateKeyFile())).loadKeys(null)) {
+                    opened.addPublicKeyIdentity(key);
+                }
+            }
+            if (settings.getPassword() != null) {
+                opened.addPasswordIdentity(settings.getPassword());
+            }
+            opened.auth().verify(settings.getConnectTimeoutMillis());
+            for (int i = 0; i < settings.getChannels(); i++) {
+                created.add(SftpClientFactory.instance().createSftpClient(opened));
+            }
+            logger.debug("Connected to " + target + " with " + created.size() + " SFTP channels in "
+                    + (System.currentTimeMillis() - start) + " ms, compression " + (settings.isCompression() ? "requested" : "off"));
+        } catch (IOException | RuntimeException e) {
+            for (SftpClient channel : created) {
+                closeQuietly(channel);
+            }
+            closeQuietly(opened);
+            client.stop();
+            throw e instanceof IOException ? (IOException) e
+                    : new IOException("Unable to connect to " + target + ": " + e.getLocalizedMessage(), e);
+        }
+        session = opened;
+        channels = new ArrayBlockingQueue<>(created.size(), false, created);
+    }
+
+    @Override
+    public CopyResult copy(final Path source, URI destination, CopyOptions options, final Progress progress) throws IOException {
+        if (options.isMirror() || options.isSnapshot() || options.getDurability() != Durability.NONE) {
+            throw new IOException("Mirror, snapshot and durability options are not supported for sftp destinations");
+        }
+        if (options.isLinkFromStore()) {
+            logger.debug("Files cannot be linked from the content store to " + target + ", copying all files...");
+        }
+        long start = System.currentTimeMillis();
+        final String root = destination.getPath().replaceAll("/+$", "");
+        final boolean preserveDates = options.isPreserveDates();
+        final boolean posix = source.getFileSystem().supportedFileAttributeViews().contains("posix");
+
+        final List<Path> dirs = new ArrayList<>();
+        final ParallelBatches<Map.Entry<Path, BasicFileAttributes>> transfers = new ParallelBatches<>(FILE_BATCH_SIZE,
+                new ParallelBatches.Handler<Map.Entry<Path, BasicFileAttributes>>() {
+                    @Override
+                    public void handle(List<Map.Entry<Path, BasicFileAttributes>> batch) throws IOException {
+                        SftpClient sftp = acquire();
+                        try {
+                            for (Map.Entry<Path, BasicFileAttributes> file : batch) {
+                                upload(sftp, file.getKey(), file.getValue(), remotePath(root, source, file.getKey()), preserveDates, posix);
+                                progress.add(1, file.getValue().size());
+                            }
+                        } finally {
+                            channels.add(sftp);
+                        }
+                    }
+                });
+
+        boolean completed = false;
+        try {
+            SftpClient sftp = acquire();
+            try {
+                createDirectories(sftp, root);
+            } finally {
+                channels.add(sftp);
+            }
+            // symbolic links are followed like in local copies, a link to an ancestor fails the copy
+            Files.walkFileTree(source, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (!dir.equals(source)) {
+                        SftpClient sftp = acquire();
+                        try {
+                            createDirectory(sftp, remotePath(root, source, dir));
+                        } finally {
+                            channels.add(sftp);
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (attrs.isRegularFile()) {
+                        transfers.add(new AbstractMap.SimpleImmutableEntry<>(file, attrs));
+                    } else {
+                        logger.debug("Skipping " + file + ", which is not a regular file");
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    if (e != null) {
+                        throw e;
+                    }
+                    dirs.add(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            transfers.await();
+            completed = true;
+        } finally {
+            if (!completed) {
+                transfers.abort();
+            }
+        }
+
+        if (preserveDates) {
+            // children were added before their parents
+            SftpClient sftp = acquire();
+            try {
+                for (Path dir : dirs) {
+                    sftp.setStat(remotePath(root, source, dir), times(Files.readAttributes(dir, BasicFileAttributes.class)));
+                }
+            } finally {
+                channels.add(sftp);
+            }
+        }
+
+        CopyResult result = new CopyResult();
+        result.setFilesCopied(filesCopied.get());
+        result.setBytesCopied(bytesCopied.get());
+        result.setElapsedMillis(System.currentTimeMillis() - start);
+        logger.debug("Copied " + source + " to " + target + root + ": " + result.getSummary());
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (SftpClient channel : channels) {
+            closeQuietly(channel);
+        }
+        channels.clear();
+        closeQuietly(session);
+        client.stop();
+    }
+
+    //================================================================================
+    // Private Methods
+    //================================================================================
+
+    private SftpClient acquire() throws IOException {
+        try {
+            return channels.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an SFTP channel to " + target);
+        }
+    }
+
+    private void upload(SftpClient sftp, Path file, BasicFileAttributes attrs, String remote, boolean preserveDates, boolean posix) throws IOException {
+        long bytes;
+        // the stream keeps a window of write requests in flight and checks their replies on close
+        try (OutputStream out = sftp.write(remote, WRITE_BUFFER_SIZE,
+                SftpClient.OpenMode.Write, SftpClient.OpenMode.Create, SftpClient.OpenMode.Truncate)) {
+            bytes = Files.copy(file, out);
+        }
+        SftpClient.Attributes remoteAttrs = preserveDates ? times(attrs) : new SftpClient.Attributes();
+        if (posix) {
+            remoteAttrs.setPermissions(mode(Files.getPosixFilePermissions(file)));
+        }
+        if (preserveDates || posix) {
+            sftp.setStat(remote, remoteAttrs);
+        }
+        filesCopied.incrementAndGet();
+        bytesCopied.addAndGet(bytes);
+    }
+
+    /**
+     * Create {@code path} and its missing parents.
+     */
+    private static void createDirectories(SftpClient sftp, String path) throws IOException {
+        if (path.isEmpty() || isDirectory(sftp, path)) {
+            return;
+        }
+        int slash = path.lastIndexOf('/');
+        if (slash > 0) {
+            createDirectories(sftp, path.substring(0, slash));
+        }
+        createDirectory(sftp, path);
+    }
+
+    private static void createDirectory(SftpClient sftp, String path) throws IOException {
+        try {
+            sftp.mkdir(path);
+        } catch (SftpException e) {
+            // servers report an existing directory as a failure, or as FILE_ALREADY_EXISTS from SFTP v4 on
+            if (!isDirectory(sftp, path)) {
+                throw e;
+            }
+        }
+    }
+
+    private static boolean isDirectory(SftpClient sftp, String path) throws IOException {
+        try {
+            return sftp.stat(path).isDirectory();
+        } catch (SftpException e) {
+            if (e.getStatus() == SftpConstants.SSH_FX_NO_SUCH_FILE || e.getStatus() == SftpConstants.SSH_FX_NO_SUCH_PATH) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private static String remotePath(String root, Path source, Path entry) {
+        return entry.equals(source) ? root : root + "/" + ContentStore.relativePath(source, entry);
+    }
+
+    private static SftpClient.Attributes times(BasicFileAttributes attrs) {
+        SftpClient.Attributes remoteAttrs = new SftpClient.Attributes();
+        // SFTP v3 sets both times or neither
+        FileTime modified = attrs.lastModifiedTime();
+        remoteAttrs.setAccessTime(attrs.lastAccessTime() != null ? attrs.lastAccessTime() : modified);
+        remoteAttrs.setModifyTime(modified);
+        return remoteAttrs;
+    }
+
+    private static int mode(Set<PosixFilePermission> permissions) {
+        int mode = 0;
+        for (PosixFilePermission permission : permissions) {
+            // OWNER_READ is 0400 and OTHERS_EXECUTE 0001, in declaration order
+            mode |= 0400 >> permission.ordinal();
+        }
+        return mode;
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                logger.debug("Unable to close " + closeable + ": " + e.getLocalizedMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+
+package com.serena.rlc.provider.filesystem.client;
+
+import com.serena.rlc.provider.filesystem.domain.CopyResult;
+import com.serena.rlc.provider.filesystem.exception.FilesystemClientException;
+import org.apache.sshd.common.config.keys.PublicKeyEntry;
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.auth.password.PasswordAuthenticator;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.session.ServerSession;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.KeyPair;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copies to an SSH server embedded on the loopback interface.
+ *
+ * @author klee
+ */
+public class SftpTransferBackendTest {
+
+    private static final String USER = "deploy";
+    private static final String PASSWORD = "secret";
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private SshServer server;
+    private Path remoteRoot;
+    private Path knownHosts;
+    private Path source;
+
+    @Before
+    public void setUp() throws Exception {
+        remoteRoot = temp.newFolder("remote").toPath();
+        SimpleGeneratorHostKeyProvider hostKeys = new SimpleGeneratorHostKeyProvider(temp.getRoot().toPath().resolve("host.key"));
+        server = SshServer.setUpDefaultServer();
+        server.setHost("127.0.0.1");
+        server.setPort(0);
+        server.setKeyPairProvider(hostKeys);
+        server.setPasswordAuthenticator(new PasswordAuthenticator() {
+            @Override
+            public boolean authenticate(String username, String password, ServerSession session) {
+                return USER.equals(username) && PASSWORD.equals(password);
+            }
+        });
+        server.setSubsystemFactories(Collections.singletonList(new SftpSubsystemFactory()));
+        server.setFileSystemFactory(new VirtualFileSystemFactory(remoteRoot));
+        server.start();
+
+        KeyPair hostKey = hostKeys.loadKeys(null).iterator().next();
+        knownHosts = temp.getRoot().toPath().resolve("known_hosts");
+        Files.write(knownHosts, ("[127.0.0.1]:" + server.getPort() + " " + PublicKeyEntry.toString(hostKey.getPublic()) + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+
+        Path shared = temp.newFolder("shared").toPath();
+        write(shared.resolve("common.jar"), "common");
+        source = temp.newFolder("app-1.0").toPath();
+        write(source.resolve("app.jar"), "app");
+        write(source.resolve("conf/app.properties"), "port=8080");
+        Files.createSymbolicLink(source.resolve("lib"), shared);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop(true);
+    }
+
+    @Test
+    public void copiesTreeFollowingLinks() throws Exception {
+        FileTime modified = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1));
+        Files.setLastModifiedTime(source.resolve("app.jar"), modified);
+        CopyResult result = new FilesystemClient().localCopy(source.toString(), destination("deploy/app"), options(2));
+
+        assertEquals(3, result.getFilesCopied());
+        Path copy = remoteRoot.resolve("deploy/app");
+        assertEquals("app", read(copy.resolve("app.jar")));
+        assertEquals("port=8080", read(copy.resolve("conf/app.properties")));
+        assertEquals("common", read(copy.resolve("lib/common.jar")));
+        // SFTP v3 carries times in whole seconds
+        assertEquals(modified.to(TimeUnit.SECONDS), Files.getLastModifiedTime(copy.resolve("app.jar")).to(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void durabilityIsRejected() throws Exception {
+        CopyOptions options = options(1);
+        options.setDurability(Durability.END);
+        try {
+            new FilesystemClient().localCopy(source.toString(), destination("deploy/app"), options);
+            throw new AssertionError("durable copy to sftp succeeded");
+        } catch (FilesystemClientException e) {
+            assertTrue(e.getMessage().contains("durability"));
+        }
+        assertFalse(Files.exists(remoteRoot.resolve("deploy/app")));
+    }
+
+    @Test(expected = FilesystemClientException.class)
+    public void wrongPasswordFails() throws Exception {
+        CopyOptions options = options(1);
+        options.getTransferSettings().setPassword("wrong");
+        new FilesystemClient().localCopy(source.toString(), destination("deploy/app"), options);
+    }
+
+    private String destination(String path) {
+        return "sftp://127.0.0.1:" + server.getPort() + "/" + path;
+    }
+
+    private CopyOptions options(int channels) {
+        TransferSettings settings = new TransferSettings();
+        settings.setUser(USER);
+        settings.setPassword(PASSWORD);
+        settings.setKnownHostsFile(knownHosts.toString());
+        settings.setChannels(channels);
+        CopyOptions options = new CopyOptions(true);
+        options.setTransferSettings(settings);
+        return options;
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
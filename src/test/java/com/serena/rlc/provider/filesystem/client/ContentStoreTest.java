@@ -0,0 +1,111 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+
+package com.serena.rlc.provider.filesystem.client;
+
+import com.serena.rlc.provider.filesystem.domain.Manifest;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author klee
+ */
+public class ContentStoreTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Path baseDir;
+    private ContentStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        baseDir = temp.newFolder("base").toPath();
+        store = new ContentStore(baseDir.resolve(".store").toString());
+    }
+
+    @Test
+    public void deduplicatesNestedUnitsOfTheDiscoveryOptions() throws IOException {
+        Path web = write(baseDir.resolve("app1/web/1.0/app.jar"), "web").getParent();
+        Path api = write(baseDir.resolve("app2/api/2.0/app.jar"), "web").getParent();
+        store.deduplicateAll(baseDir, new DiscoveryOptions(3, null, null));
+
+        assertNotNull(store.readManifest(web));
+        assertNotNull(store.readManifest(api));
+        assertNull(store.readManifest(baseDir.resolve("app1")));
+        assertTrue(Files.isSameFile(web.resolve("app.jar"), api.resolve("app.jar")));
+        assertEquals(1, store.readManifest(web).size());
+    }
+
+    @Test
+    public void replacedFileIsDeduplicatedAgain() throws IOException {
+        Path unit = write(baseDir.resolve("app-1.0/conf/app.properties"), "port=8080").getParent().getParent();
+        store.deduplicateAll(baseDir);
+        Path properties = unit.resolve("conf/app.properties");
+        FileTime rootModified = Files.getLastModifiedTime(unit);
+        Files.delete(properties);
+        write(properties, "port=9090");
+        Files.setLastModifiedTime(unit, rootModified);
+
+        Manifest manifest = store.readManifest(unit);
+        assertEquals(ContentStore.objectKey(properties), manifest.getEntry("conf/app.properties").getHash());
+        assertFalse(store.contains(manifest.getEntry("conf/app.properties").getHash()));
+
+        store.deduplicateAll(baseDir);
+        assertTrue(Files.isSameFile(store.getObjectPath(manifest.getEntry("conf/app.properties").getHash()), properties));
+    }
+
+    @Test
+    public void unitsInUseAreDeduplicatedLater() throws IOException {
+        Path unit = write(baseDir.resolve("app-1.0/app.jar"), "app").getParent();
+        DeployUnitLocks locks = new DeployUnitLocks();
+        store.setUnitLocks(locks);
+        locks.lockShared(unit);
+        store.deduplicateAll(baseDir);
+        assertNull(store.readManifest(unit));
+
+        locks.unlockShared(unit);
+        store.deduplicateAll(baseDir);
+        assertNotNull(store.readManifest(unit));
+    }
+
+    @Test
+    public void filesOfLinkedDirectoriesAreRecordedButNotLinked() throws IOException {
+        Path shared = write(temp.getRoot().toPath().resolve("shared/lib/util.jar"), "util");
+        Path unit = write(baseDir.resolve("app-1.0/app.jar"), "app").getParent();
+        Files.createSymbolicLink(unit.resolve("lib"), shared.getParent());
+        store.deduplicateAll(baseDir);
+
+        Manifest manifest = store.readManifest(unit);
+        assertEquals(2, manifest.size());
+        assertFalse(store.contains(manifest.getEntry("lib/util.jar").getHash()));
+        assertTrue(store.contains(manifest.getEntry("app.jar").getHash()));
+        assertSame(manifest, ManifestCache.revalidate(unit, manifest));
+    }
+
+    private static Path write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        return Files.write(file, content.getBytes("UTF-8"));
+    }
+}
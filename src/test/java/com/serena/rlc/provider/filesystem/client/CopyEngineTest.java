@@ -0,0 +1,170 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+
+package com.serena.rlc.provider.filesystem.client;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author klee
+ */
+public class CopyEngineTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Path source;
+    private Path destination;
+
+    @Before
+    public void setUp() throws IOException {
+        Path shared = temp.newFolder("shared").toPath();
+        write(shared.resolve("lib/common.jar"), "common");
+        write(shared.resolve("version.txt"), "1.0");
+        source = temp.newFolder("source").toPath();
+        write(source.resolve("app.jar"), "app");
+        Files.createSymbolicLink(source.resolve("lib"), shared.resolve("lib"));
+        Files.createSymbolicLink(source.resolve("version.txt"), shared.resolve("version.txt"));
+        destination = temp.getRoot().toPath().resolve("destination");
+    }
+
+    @Test
+    public void freshCopyFollowsLinks() throws IOException {
+        copy(new CopyOptions());
+        assertCopied();
+    }
+
+    @Test
+    public void copyIntoExistingDestinationFollowsLinks() throws IOException {
+        write(destination.resolve("other.txt"), "other");
+        copy(new CopyOptions());
+        assertCopied();
+        assertTrue(Files.exists(destination.resolve("other.txt")));
+    }
+
+    @Test
+    public void mirrorFollowsLinks() throws IOException {
+        write(destination.resolve("lib/old.jar"), "old");
+        CopyOptions options = new CopyOptions();
+        options.setMirror(true);
+        copy(options);
+        assertCopied();
+        assertFalse(Files.exists(destination.resolve("lib/old.jar")));
+    }
+
+    @Test
+    public void freshCopyIntoLinkedDestination() throws IOException {
+        Path release = temp.newFolder("releases", "v2").toPath();
+        Files.createSymbolicLink(destination, release);
+        copy(new CopyOptions());
+        assertTrue(Files.isSymbolicLink(destination));
+        assertCopied();
+    }
+
+    @Test
+    public void mirrorIntoLinkedDestination() throws IOException {
+        Path release = temp.newFolder("releases", "v1").toPath();
+        write(release.resolve("app.jar"), "old build");
+        write(release.resolve("stale.txt"), "stale");
+        Files.createSymbolicLink(destination, release);
+        CopyOptions options = new CopyOptions();
+        options.setMirror(true);
+        copy(options);
+        assertTrue(Files.isSymbolicLink(destination));
+        assertCopied();
+        assertFalse(Files.exists(release.resolve("stale.txt")));
+    }
+
+    @Test
+    public void freshAndExistingCopiesPreserveTheSamePermissions() throws IOException {
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rwxrwxrwx");
+        Files.setPosixFilePermissions(source.resolve("app.jar"), permissions);
+        CopyOptions options = new CopyOptions();
+        options.setPreserveDates(true);
+        copy(options);
+        assertEquals(permissions, Files.getPosixFilePermissions(destination.resolve("app.jar")));
+
+        Files.delete(destination.resolve("app.jar"));
+        copy(options);
+        assertEquals(permissions, Files.getPosixFilePermissions(destination.resolve("app.jar")));
+    }
+
+    @Test
+    public void durableCopiesSyncReadOnlyFiles() throws IOException {
+        assertTrue(source.resolve("app.jar").toFile().setReadOnly());
+        CopyOptions options = new CopyOptions();
+        options.setPreserveDates(true);
+        options.setDurability(Durability.PER_FILE);
+        copy(options);
+        options.setDurability(Durability.END);
+        copy(options);
+        assertCopied();
+    }
+
+    @Test(expected = FileSystemLoopException.class)
+    public void freshCopyFailsOnLinkToAncestor() throws IOException {
+        Files.createSymbolicLink(source.resolve("lib/loop"), source);
+        copy(new CopyOptions());
+    }
+
+    @Test(expected = FileSystemLoopException.class)
+    public void copyIntoExistingDestinationFailsOnLinkToAncestor() throws IOException {
+        Files.createSymbolicLink(source.resolve("lib/loop"), source);
+        write(destination.resolve("other.txt"), "other");
+        copy(new CopyOptions());
+    }
+
+    @Test(expected = FileSystemLoopException.class)
+    public void mirrorFailsOnLinkToAncestor() throws IOException {
+        Files.createSymbolicLink(source.resolve("lib/loop"), source);
+        CopyOptions options = new CopyOptions();
+        options.setMirror(true);
+        copy(options);
+    }
+
+    private void copy(CopyOptions options) throws IOException {
+        new CopyEngine(source, destination, options, null, null, new Progress("copy", source.toString())).copy();
+    }
+
+    private void assertCopied() throws IOException {
+        assertFalse(Files.isSymbolicLink(destination.resolve("lib")));
+        assertTrue(Files.isDirectory(destination.resolve("lib"), LinkOption.NOFOLLOW_LINKS));
+        assertEquals("common", read(destination.resolve("lib/common.jar")));
+        assertFalse(Files.isSymbolicLink(destination.resolve("version.txt")));
+        assertEquals("1.0", read(destination.resolve("version.txt")));
+        assertEquals("app", read(destination.resolve("app.jar")));
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
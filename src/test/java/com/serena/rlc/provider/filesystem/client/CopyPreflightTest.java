@@ -0,0 +1,105 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+
+package com.serena.rlc.provider.filesystem.client;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * @author klee
+ */
+public class CopyPreflightTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private FilesystemClient client;
+    private Path source;
+    private Path destination;
+
+    @Before
+    public void setUp() throws IOException {
+        client = new FilesystemClient();
+        source = temp.newFolder("source").toPath();
+        write(source.resolve("app.jar"), 30000);
+        write(source.resolve("conf/app.properties"), 2000);
+        write(source.resolve("conf/log.xml"), 1000);
+        destination = temp.newFolder("destination").toPath();
+    }
+
+    @Test
+    public void unrelatedDestinationContentFreesNothing() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            write(destination.resolve("other/data" + i + ".bin"), 100000);
+        }
+        assertArrayEquals(new long[]{3, 33000}, client.requiredForCopy(source, destination, new CopyOptions()));
+    }
+
+    @Test
+    public void replacedFilesAreSubtracted() throws IOException {
+        write(destination.resolve("app.jar"), 25000);
+        write(destination.resolve("conf/log.xml"), 500);
+        write(destination.resolve("other/data.bin"), 100000);
+        assertArrayEquals(new long[]{1, 7500}, client.requiredForCopy(source, destination, new CopyOptions()));
+    }
+
+    @Test
+    public void replacedFilesAreSubtractedWithCachedManifest() throws Exception {
+        // a diff caches the manifest of the source
+        client.diffDirectories(source.toString(), source.toString());
+        write(destination.resolve("app.jar"), 25000);
+        write(destination.resolve("other/data.bin"), 100000);
+        assertArrayEquals(new long[]{2, 8000}, client.requiredForCopy(source, destination, new CopyOptions()));
+    }
+
+    @Test
+    public void snapshotKeepsReplacedFiles() throws IOException {
+        write(destination.resolve("app.jar"), 25000);
+        CopyOptions options = new CopyOptions();
+        options.setSnapshot(true);
+        assertArrayEquals(new long[]{3, 33000}, client.requiredForCopy(source, destination, options));
+    }
+
+    @Test
+    public void missingDestinationNeedsTheWholeSource() throws IOException {
+        assertArrayEquals(new long[]{3, 33000}, client.requiredForCopy(source, destination.resolve("new"), new CopyOptions()));
+    }
+
+    @Test
+    public void linkedDirectoriesAreCounted() throws Exception {
+        Path shared = temp.newFolder("shared").toPath();
+        write(shared.resolve("lib/util.jar"), 4000);
+        Files.createSymbolicLink(source.resolve("lib"), shared.resolve("lib"));
+        assertArrayEquals(new long[]{4, 37000}, client.requiredForCopy(source, destination, new CopyOptions()));
+
+        client.diffDirectories(source.toString(), source.toString());
+        assertArrayEquals(new long[]{4, 37000}, client.requiredForCopy(source, destination, new CopyOptions()));
+    }
+
+    @Test
+    public void linkToAnAncestorIsCountedOnce() throws IOException {
+        Files.createSymbolicLink(source.resolve("conf/loop"), source);
+        assertArrayEquals(new long[]{3, 33000}, client.requiredForCopy(source, destination, new CopyOptions()));
+    }
+
+    private static void write(Path file, int size) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[size]);
+    }
+}
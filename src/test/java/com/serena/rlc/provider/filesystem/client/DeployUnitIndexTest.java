@@ -0,0 +1,110 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+
+package com.serena.rlc.provider.filesystem.client;
+
+import com.serena.rlc.provider.filesystem.domain.Directory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author klee
+ */
+public class DeployUnitIndexTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Path baseDir;
+
+    @Before
+    public void setUp() throws IOException {
+        baseDir = temp.newFolder("base").toPath();
+        Files.createDirectory(baseDir.resolve("app-1.0"));
+    }
+
+    @Test
+    public void directoryChangedWithinTheSameTimestampIsListedAgain() throws IOException {
+        // a coarse timestamp that the next change falls into as well
+        FileTime modified = FileTime.fromMillis(System.currentTimeMillis() / 2000 * 2000);
+        Files.setLastModifiedTime(baseDir, modified);
+        DeployUnitIndex index = new DeployUnitIndex(baseDir, null, DiscoveryOptions.CHILDREN);
+        index.refresh();
+
+        Files.createDirectory(baseDir.resolve("app-1.1"));
+        Files.setLastModifiedTime(baseDir, modified);
+        index.refresh();
+        assertEquals(names("app-1.1", "app-1.0"), names(index));
+    }
+
+    @Test
+    public void settledDirectoryIsNotListedAgain() throws IOException {
+        FileTime modified = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+        Files.setLastModifiedTime(baseDir, modified);
+        DeployUnitIndex index = new DeployUnitIndex(baseDir, null, DiscoveryOptions.CHILDREN);
+        index.refresh();
+
+        // only a change of the modification time reveals the new unit
+        Files.createDirectory(baseDir.resolve("app-1.1"));
+        Files.setLastModifiedTime(baseDir, modified);
+        index.refresh();
+        assertEquals(names("app-1.0"), names(index));
+
+        Files.setLastModifiedTime(baseDir, FileTime.fromMillis(System.currentTimeMillis()));
+        index.refresh();
+        assertEquals(names("app-1.1", "app-1.0"), names(index));
+    }
+
+    @Test
+    public void releaseCandidateSortsBeforeItsRelease() throws IOException {
+        Files.createDirectory(baseDir.resolve("app-2.0-RC1"));
+        Files.createDirectory(baseDir.resolve("app-2.0"));
+        DeployUnitIndex index = new DeployUnitIndex(baseDir, null, DiscoveryOptions.CHILDREN);
+        index.refresh();
+        assertEquals(names("app-2.0"), names(index.list(null, true, 1)));
+
+        Files.createDirectory(baseDir.resolve("app-2.0.1"));
+        Files.setLastModifiedTime(baseDir, FileTime.fromMillis(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)));
+        index.refresh();
+        assertEquals(names("app-2.0.1", "app-2.0", "app-2.0-RC1", "app-1.0"), names(index));
+    }
+
+    private static List<String> names(String... names) {
+        List<String> list = new ArrayList<>();
+        for (String name : names) {
+            list.add(name);
+        }
+        return list;
+    }
+
+    private static List<String> names(DeployUnitIndex index) {
+        return names(index.list(null, true, 0));
+    }
+
+    private static List<String> names(List<Directory> units) {
+        List<String> names = new ArrayList<>();
+        for (Directory unit : units) {
+            names.add(unit.getName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+
+package com.serena.rlc.provider.filesystem.client;
+
+import com.serena.rlc.provider.filesystem.domain.Manifest;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author klee
+ */
+public class ManifestCacheTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Path unit;
+    private ManifestCache cache;
+    private Manifest manifest;
+
+    @Before
+    public void setUp() throws IOException {
+        unit = temp.newFolder("app-1.0").toPath();
+        write(unit.resolve("app.jar"), "app");
+        write(unit.resolve("conf/app.properties"), "port=8080");
+        cache = new ManifestCache();
+        manifest = cache.get(unit, null);
+    }
+
+    @Test
+    public void unchangedManifestIsReused() throws IOException {
+        assertSame(manifest, cache.getCached(unit, null));
+    }
+
+    @Test
+    public void fileEditedBelowTheRootIsHashedAgain() throws IOException {
+        Path properties = unit.resolve("conf/app.properties");
+        FileTime rootModified = Files.getLastModifiedTime(unit);
+        write(properties, "port=9090");
+        Files.setLastModifiedTime(properties, FileTime.fromMillis(manifest.getEntry("conf/app.properties").getModified() + 1000));
+        Files.setLastModifiedTime(unit, rootModified);
+
+        Manifest revalidated = cache.getCached(unit, null);
+        assertEquals(ContentStore.objectKey(properties), revalidated.getEntry("conf/app.properties").getHash());
+        assertSame(manifest.getEntry("app.jar"), revalidated.getEntry("app.jar"));
+        assertSame(revalidated, cache.getCached(unit, null));
+    }
+
+    @Test
+    public void removedFileIsDropped() throws IOException {
+        FileTime rootModified = Files.getLastModifiedTime(unit);
+        Files.delete(unit.resolve("conf/app.properties"));
+        Files.setLastModifiedTime(unit, rootModified);
+
+        Manifest revalidated = cache.getCached(unit, null);
+        assertEquals(1, revalidated.size());
+        assertNull(revalidated.getEntry("conf/app.properties"));
+    }
+
+    @Test
+    public void fileAddedBelowTheRootIsHashed() throws IOException {
+        FileTime rootModified = Files.getLastModifiedTime(unit);
+        Path added = unit.resolve("conf/logging.properties");
+        write(added, "level=INFO");
+        Files.setLastModifiedTime(unit, rootModified);
+
+        Manifest revalidated = cache.getCached(unit, null);
+        assertEquals(3, revalidated.size());
+        assertEquals(ContentStore.objectKey(added), revalidated.getEntry("conf/logging.properties").getHash());
+        assertSame(manifest.getEntry("app.jar"), revalidated.getEntry("app.jar"));
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes("UTF-8"));
+    }
+}
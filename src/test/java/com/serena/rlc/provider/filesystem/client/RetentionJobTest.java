@@ -0,0 +1,134 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+
+package com.serena.rlc.provider.filesystem.client;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author klee
+ */
+public class RetentionJobTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Path baseDir;
+
+    @Before
+    public void setUp() throws IOException {
+        baseDir = temp.newFolder("base").toPath();
+    }
+
+    @Test
+    public void ageRuleKeepsNewestVersionOfEachPrefix() throws IOException {
+        unit("app-1.0", 30);
+        unit("app-1.1", 20);
+        unit("app-1.10", 10);
+        unit("lib-2.0", 30);
+        run(new RetentionPolicy(0, 7));
+
+        assertFalse(Files.exists(baseDir.resolve("app-1.0")));
+        assertFalse(Files.exists(baseDir.resolve("app-1.1")));
+        assertTrue(Files.exists(baseDir.resolve("app-1.10")));
+        assertTrue(Files.exists(baseDir.resolve("lib-2.0")));
+    }
+
+    @Test
+    public void directoriesWithoutVersionAreNeverRemoved() throws IOException {
+        unit("logs", 30);
+        unit("shared", 30);
+        unit("app-1.0", 30);
+        unit("app-1.1", 30);
+        RetentionJob job = run(new RetentionPolicy(1, 0));
+
+        assertTrue(Files.exists(baseDir.resolve("logs")));
+        assertTrue(Files.exists(baseDir.resolve("shared")));
+        assertFalse(Files.exists(baseDir.resolve("app-1.0")));
+        assertTrue(Files.exists(baseDir.resolve("app-1.1")));
+        assertEquals(1, job.getLastUnitsRemoved());
+    }
+
+    @Test
+    public void unitsInUseAreKept() throws IOException {
+        unit("app-1.0", 30);
+        unit("app-1.1", 30);
+        DeployUnitLocks locks = new DeployUnitLocks();
+        locks.lockShared(baseDir.resolve("app-1.0"));
+        RetentionJob job = new RetentionJob(baseDir, locks);
+        job.setPolicy(new RetentionPolicy(1, 0));
+        job.run();
+
+        assertTrue(Files.exists(baseDir.resolve("app-1.0")));
+        assertEquals(0, job.getLastUnitsRemoved());
+    }
+
+    @Test
+    public void nestedUnitsAreRankedWithinTheirParent() throws IOException {
+        unit("app1/web/1.0", 30);
+        unit("app1/web/1.1", 30);
+        unit("app2/web/1.0", 30);
+        RetentionJob job = new RetentionJob(baseDir, new DeployUnitLocks());
+        job.setPolicy(new RetentionPolicy(1, 0));
+        job.setDiscoveryOptions(new DiscoveryOptions(3, null, null));
+        job.run();
+
+        assertFalse(Files.exists(baseDir.resolve("app1/web/1.0")));
+        assertTrue(Files.exists(baseDir.resolve("app1/web/1.1")));
+        assertTrue(Files.exists(baseDir.resolve("app2/web/1.0")));
+        assertEquals(1, job.getLastUnitsRemoved());
+    }
+
+    @Test
+    public void snapshotDirectoriesAreNotUnits() throws IOException {
+        unit("app/1.0", 30);
+        unit("app/1.1", 30);
+        unit("app/.1.1.snapshots/20160101-120000-000", 30);
+        unit("app/.1.1.snapshots/20160102-120000-000", 30);
+        RetentionJob job = new RetentionJob(baseDir, new DeployUnitLocks());
+        job.setPolicy(new RetentionPolicy(1, 0));
+        // snapshots hold the marker file of the units they were taken of
+        job.setDiscoveryOptions(new DiscoveryOptions(3, "version.txt", null));
+        job.run();
+
+        assertFalse(Files.exists(baseDir.resolve("app/1.0")));
+        assertTrue(Files.exists(baseDir.resolve("app/1.1")));
+        assertTrue(Files.exists(baseDir.resolve("app/.1.1.snapshots/20160101-120000-000")));
+        assertEquals(1, job.getLastUnitsRemoved());
+    }
+
+    private RetentionJob run(RetentionPolicy policy) {
+        RetentionJob job = new RetentionJob(baseDir, new DeployUnitLocks());
+        job.setPolicy(policy);
+        job.run();
+        return job;
+    }
+
+    private void unit(String name, int ageDays) throws IOException {
+        Path unit = Files.createDirectories(baseDir.resolve(name));
+        Files.write(unit.resolve("version.txt"), name.getBytes("UTF-8"));
+        FileTime modified = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(ageDays));
+        Files.setLastModifiedTime(unit.resolve("version.txt"), modified);
+        Files.setLastModifiedTime(unit, modified);
+    }
+}
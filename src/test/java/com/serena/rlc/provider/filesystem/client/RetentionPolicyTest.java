@@ -0,0 +1,71 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+
+package com.serena.rlc.provider.filesystem.client;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author klee
+ */
+public class RetentionPolicyTest {
+
+    private static final long NOW = System.currentTimeMillis();
+    private static final long OLD = NOW - TimeUnit.DAYS.toMillis(30);
+
+    @Test
+    public void newestVersionIsAlwaysRetained() {
+        assertTrue(new RetentionPolicy(0, 7).isRetained(0, OLD, NOW));
+        assertTrue(new RetentionPolicy(1, 0).isRetained(0, OLD, NOW));
+        assertFalse(new RetentionPolicy(0, 7).isRetained(1, OLD, NOW));
+    }
+
+    @Test
+    public void keepLastAndAgeRetainIndependently() {
+        RetentionPolicy policy = new RetentionPolicy(2, 7);
+        assertTrue(policy.isRetained(1, OLD, NOW));
+        assertTrue(policy.isRetained(5, NOW - TimeUnit.DAYS.toMillis(1), NOW));
+        assertFalse(policy.isRetained(2, OLD, NOW));
+    }
+
+    @Test
+    public void disabledPolicyRetainsEverything() {
+        assertTrue(new RetentionPolicy(0, 0).isRetained(10, OLD, NOW));
+    }
+
+    @Test
+    public void onlyVersionedNamesAreVersions() {
+        assertTrue(VersionComparator.isVersion("app-a-1.2.3"));
+        assertTrue(VersionComparator.isVersion("v2.0-RC1"));
+        assertTrue(VersionComparator.isVersion("20240105"));
+        assertFalse(VersionComparator.isVersion("logs"));
+        assertFalse(VersionComparator.isVersion("backup 1 (old)"));
+    }
+
+    @Test
+    public void releaseIsRankedAboveItsReleaseCandidate() {
+        List<String> names = Arrays.asList("v2.0.1", "v2.0-RC1", "v1.0-SNAPSHOT", "v2.0", "v1.0");
+        Collections.sort(names, Collections.reverseOrder(VersionComparator.INSTANCE));
+        assertEquals(Arrays.asList("v2.0.1", "v2.0", "v2.0-RC1", "v1.0", "v1.0-SNAPSHOT"), names);
+
+        RetentionPolicy policy = new RetentionPolicy(2, 0);
+        assertTrue(policy.isRetained(names.indexOf("v2.0"), OLD, NOW));
+        assertFalse(policy.isRetained(names.indexOf("v2.0-RC1"), OLD, NOW));
+    }
+}
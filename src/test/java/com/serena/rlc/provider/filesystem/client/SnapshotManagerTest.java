@@ -0,0 +1,80 @@
+/*
+ *
+ * Copyright (c) 2016 SERENA Software, Inc. All Rights Reserved.
+ *
+ * This software is proprietary information of SERENA Software, Inc.
+ * Use is subject to license terms.
+ *
+ */
+
+
+package com.serena.rlc.provider.filesystem.client;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author klee
+ */
+public class SnapshotManagerTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Path destination;
+
+    @Before
+    public void setUp() throws IOException {
+        destination = temp.newFolder("app").toPath();
+        write(destination.resolve("app.jar"), "1.0");
+    }
+
+    @Test
+    public void snapshotsAreNamedInUtc() throws IOException, ParseException {
+        long before = System.currentTimeMillis();
+        Path snapshot = new SnapshotManager().take(destination);
+        long after = System.currentTimeMillis();
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        long taken = format.parse(snapshot.getFileName().toString()).getTime();
+        assertTrue(taken >= before && taken <= after);
+    }
+
+    @Test
+    public void rollbackRestoresTheLatestSnapshot() throws Exception {
+        Path source = temp.newFolder("source").toPath();
+        write(source.resolve("app.jar"), "2.0");
+        CopyOptions options = new CopyOptions();
+        options.setSnapshot(true);
+        FilesystemClient client = new FilesystemClient();
+        String snapshot = client.localCopy(source.toString(), destination.toString(), options).getSnapshot();
+        assertEquals("2.0", read(destination.resolve("app.jar")));
+
+        assertEquals(snapshot, client.rollbackDir(destination.toString()));
+        assertEquals("1.0", read(destination.resolve("app.jar")));
+        assertTrue(new SnapshotManager().list(destination).isEmpty());
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}